@@ -0,0 +1,461 @@
+package nvTrees;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Decides conjugacy of elements of F, T and V by comparing their reduced closed strand diagrams
+ * (see {@link StrandDiagram}), and finds conjugators.
+ * <br>
+ * Every connected component of the reduced diagram gets a canonical code. The vertices are numbered
+ * in the order in which a breadth-first search from one vertex meets them, taking the edges of each
+ * vertex in a fixed order, and the cut is moved so that the edges of the search tree do not cross it;
+ * the code lists the vertices with their edges and the number of times each edge crosses the cut.
+ * Of all the vertices the search may start from, the one giving the least code is taken.
+ * The sorted codes and the lengths of the free loops make the invariant of the element, and
+ * two elements are conjugate in V exactly when their invariants are the same.
+ * Elements of F and T are compared as elements of V.
+ * <br>
+ * Reducing the diagram takes time about linear in the size of the pair; the codes take time
+ * quadratic in the number of vertices of a component in the worst case.
+ * <br>
+ * To find a conjugator, the isomorphism of the diagrams given by the codes is used to move the cut
+ * of one diagram to the place of the cut of the other. Both diagrams then give the same element
+ * when cut, and the conjugators of the two diagrams give a conjugator between the two elements.
+ * @author Romwell
+ *
+ */
+public class ConjugacyEngine {
+
+	/**
+	 * A connected component of a diagram, with its canonical code
+	 */
+	private static class Component
+	{
+		int[] vertices;
+		int start;
+		int[] code;
+	}
+
+	/**
+	 * Orders codes lexicographically
+	 */
+	private static final Comparator<int[]> CODE_ORDER = new Comparator<int[]>()
+	{
+		public int compare(int[] a, int[] b)
+		{
+			for (int i=0; i<Math.min(a.length, b.length); i++)
+			{
+				if (a[i]!=b[i])
+				{
+					return (a[i]<b[i]) ? -1 : 1;
+				}
+			}
+			return a.length-b.length;
+		}
+	};
+
+	/**
+	 * The element
+	 */
+	private final TreePair element;
+
+	/**
+	 * Its reduced diagram. Finding conjugators moves the cut of this diagram.
+	 */
+	private final StrandDiagram diagram;
+
+	/**
+	 * True if the reduced diagram has vertices (the element has infinite order)
+	 */
+	private final boolean hasVertices;
+
+	/**
+	 * The invariant of the element
+	 */
+	private final String invariant;
+
+	/**
+	 * Makes and reduces the closed strand diagram of an element
+	 * @param A an element of F, T or V
+	 * @throws TreeNodeException if A has carets of several colors
+	 */
+	public ConjugacyEngine(TreePair A) throws TreeNodeException
+	{
+		element = A;
+		diagram = new StrandDiagram(A);
+		diagram.reduce();
+		hasVertices = diagram.numberVertices()>0;
+		StrandDiagram.Graph G = diagram.graph();
+		StringBuilder S = new StringBuilder();
+		if (hasVertices)
+		{
+			S.append("color ").append(diagram.getColor()).append(':');
+		}
+		for (Component C : components(G))
+		{
+			S.append(" [");
+			for (int i=0; i<C.code.length; i++)
+			{
+				S.append((i>0) ? "," : "").append(C.code[i]);
+			}
+			S.append(']');
+		}
+		int[] loops = new int[G.loops.size()];
+		for (int i=0; i<loops.length; i++)
+		{
+			loops[i] = G.loops.get(i).length;
+		}
+		Arrays.sort(loops);
+		S.append(" loops:");
+		for (int n : loops)
+		{
+			S.append(' ').append(n);
+		}
+		invariant = S.toString();
+	}
+
+	/**
+	 * Returns the invariant of the element: a string that is the same for two elements exactly when
+	 * they are conjugate in V. Elements of infinite order on carets of different colors get different invariants.
+	 */
+	public String getInvariant()
+	{
+		return invariant;
+	}
+
+	/**
+	 * Tells whether the element is conjugate to another one
+	 * @throws TreeNodeException if the elements have infinite order and carets of different colors
+	 */
+	public boolean isConjugateTo(ConjugacyEngine other) throws TreeNodeException
+	{
+		if (hasVertices && other.hasVertices && (diagram.getColor()!=other.diagram.getColor()))
+		{
+			throw new TreeNodeException("Cannot compare elements acting on different colors: "
+					+diagram.getColor()+" and "+other.diagram.getColor());
+		}
+		return invariant.equals(other.invariant);
+	}
+
+	/**
+	 * Finds an element conjugating this element to another one
+	 * @param other the engine of the other element
+	 * @return C such that C A C^-1 = B (that is, A^C = B in the calculator), or null if A and B are not conjugate
+	 */
+	public TreePair conjugatorTo(ConjugacyEngine other) throws TreeNodeException
+	{
+		if (!isConjugateTo(other))
+		{
+			return null;
+		}
+		StrandDiagram.Graph G = diagram.graph();
+		StrandDiagram.Graph H = other.diagram.graph();
+		ArrayList<Component> mine = components(G);
+		ArrayList<Component> theirs = components(H);
+
+		//the isomorphism psi, and how far the cut must be moved at each vertex
+		int n = G.type.length;
+		int[] psi = new int[n];
+		long[] shift = new long[n];
+		int[] numG = new int[n];
+		long[] potG = new long[n];
+		int[] numH = new int[H.type.length];
+		long[] potH = new long[H.type.length];
+		for (int c=0; c<mine.size(); c++)
+		{
+			Component A = mine.get(c);
+			Component B = theirs.get(c);
+			code(G, A.start, A.vertices, numG, potG);
+			code(H, B.start, B.vertices, numH, potH);
+			int[] byNumber = new int[B.vertices.length];
+			for (int u : B.vertices)
+			{
+				byNumber[numH[u]] = u;
+			}
+			long[] s = new long[A.vertices.length];
+			for (int i=0; i<A.vertices.length; i++)
+			{
+				int v = A.vertices[i];
+				psi[v] = byNumber[numG[v]];
+				s[i] = potG[v]-potH[psi[v]];
+			}
+			//moving the cut across all vertices of a component changes nothing; take the fewest moves
+			long[] sorted = s.clone();
+			Arrays.sort(sorted);
+			long median = sorted[sorted.length/2];
+			for (int i=0; i<A.vertices.length; i++)
+			{
+				shift[A.vertices[i]] = s[i]-median;
+			}
+		}
+		moveCut(G, shift);
+
+		//now the cuts are at the same places: match the roots
+		G = diagram.graph();
+		int k = diagram.size();
+		if (k!=other.diagram.size())
+		{
+			throw new TreeNodeException("Could not match the strand diagrams");
+		}
+		int[] perm = new int[k];
+		Arrays.fill(perm, -1);
+		for (int v=0; v<n; v++)
+		{
+			for (int s=0; s<3; s++)
+			{
+				if (StrandDiagram.Graph.isOut(G.type[v], s))
+				{
+					matchRoots(G.cuts[3*v+s], H.cuts[3*psi[v]+s], perm);
+				}
+			}
+		}
+		HashMap<Integer, int[]> loops = new HashMap<Integer, int[]>();
+		for (int[] loop : H.loops)
+		{
+			loops.put(loop.length, loop);
+		}
+		for (int[] loop : G.loops)
+		{
+			matchRoots(loop, loops.get(loop.length), perm);
+		}
+		for (int j : perm)
+		{
+			if (j<0)
+			{
+				throw new TreeNodeException("Could not match the strand diagrams");
+			}
+		}
+		diagram.permute(perm);
+
+		TreePair C = TreePair.compose(TreePair.inverseOf(diagram.getConjugator()), other.diagram.getConjugator());
+		TreePair check = TreePair.compose(TreePair.conjugate(element, C), TreePair.inverseOf(other.element));
+		if (!check.isIdentity())
+		{
+			throw new TreeNodeException("The conjugator found does not conjugate "+element+" to "+other.element);
+		}
+		return C;
+	}
+
+	/**
+	 * Moves the cut of the diagram across the vertices, one vertex at a time.
+	 * The vertices moved first are those the cut must move across most often, so that no strand
+	 * ever has to cross the cut a negative number of times.
+	 * @param G the graph of the diagram
+	 * @param shift the number of times the cut must be moved forward across each vertex (backward if negative)
+	 */
+	private void moveCut(StrandDiagram.Graph G, long[] shift) throws TreeNodeException
+	{
+		StrandDiagram.Node[] nodes = G.nodes.clone();
+		while (true)
+		{
+			long max = 0;
+			long min = 0;
+			for (long s : shift)
+			{
+				max = Math.max(max, s);
+				min = Math.min(min, s);
+			}
+			if ((max==0) && (min==0))
+			{
+				return;
+			}
+			boolean moved = false;
+			for (int v=0; (v<nodes.length) && !moved; v++)
+			{
+				if ((max>0) && (shift[v]==max) && diagram.canMoveForward(nodes[v], G.type[v]))
+				{
+					nodes[v] = diagram.moveForward(nodes[v], G.type[v]);
+					shift[v]--;
+					moved = true;
+				}
+				else if ((min<0) && (shift[v]==min) && diagram.canMoveBackward(nodes[v], G.type[v]))
+				{
+					nodes[v] = diagram.moveBackward(nodes[v], G.type[v]);
+					shift[v]++;
+					moved = true;
+				}
+			}
+			if (!moved)
+			{
+				throw new TreeNodeException("Could not move the cut of the strand diagram");
+			}
+		}
+	}
+
+	/**
+	 * Matches the roots crossed by corresponding strands of the two diagrams
+	 * @param mine roots of this diagram
+	 * @param theirs roots of the other diagram
+	 * @param perm perm[j] is set to the root of this diagram matching root j of the other one
+	 */
+	private static void matchRoots(int[] mine, int[] theirs, int[] perm) throws TreeNodeException
+	{
+		if ((theirs==null) || (mine.length!=theirs.length))
+		{
+			throw new TreeNodeException("Could not match the strand diagrams");
+		}
+		for (int i=0; i<mine.length; i++)
+		{
+			perm[theirs[i]] = mine[i];
+		}
+	}
+
+	/**
+	 * Splits the graph of a diagram into connected components and finds their codes
+	 * @return the components, sorted by code
+	 */
+	private static ArrayList<Component> components(StrandDiagram.Graph G)
+	{
+		int n = G.type.length;
+		int[] num = new int[n];
+		long[] pot = new long[n];
+		boolean[] seen = new boolean[n];
+		ArrayList<Component> components = new ArrayList<Component>();
+		for (int v=0; v<n; v++)
+		{
+			if (seen[v])
+			{
+				continue;
+			}
+			ArrayList<Integer> list = new ArrayList<Integer>();
+			list.add(v);
+			seen[v] = true;
+			boolean hasMerges = false;
+			for (int i=0; i<list.size(); i++)
+			{
+				int u = list.get(i);
+				hasMerges |= (G.type[u]==StrandDiagram.MERGE);
+				for (int s=0; s<3; s++)
+				{
+					int w = G.next[3*u+s]/3;
+					if (!seen[w])
+					{
+						seen[w] = true;
+						list.add(w);
+					}
+				}
+			}
+			Component C = new Component();
+			C.vertices = new int[list.size()];
+			for (int i=0; i<list.size(); i++)
+			{
+				C.vertices[i] = list.get(i);
+			}
+			//start from merges only, if there are any
+			for (int u : C.vertices)
+			{
+				if (hasMerges && (G.type[u]!=StrandDiagram.MERGE))
+				{
+					continue;
+				}
+				int[] code = code(G, u, C.vertices, num, pot);
+				if ((C.code==null) || (CODE_ORDER.compare(code, C.code)<0))
+				{
+					C.code = code;
+					C.start = u;
+				}
+			}
+			components.add(C);
+		}
+		Collections.sort(components, new Comparator<Component>()
+		{
+			public int compare(Component a, Component b)
+			{
+				return CODE_ORDER.compare(a.code, b.code);
+			}
+		});
+		return components;
+	}
+
+	/**
+	 * Computes the code of a component by a breadth-first search from a vertex
+	 * @param G the graph
+	 * @param start the vertex to start from
+	 * @param vertices the vertices of the component
+	 * @param num is filled with the order in which the vertices are met
+	 * @param pot is filled with the number of times the cut is moved forward across each vertex,
+	 * so that the edges of the search tree do not cross it
+	 * @return for each vertex, in order: its type, then for each of its edges the vertex at the other end,
+	 * the number of the edge there, and the number of times the edge crosses the moved cut
+	 */
+	private static int[] code(StrandDiagram.Graph G, int start, int[] vertices, int[] num, long[] pot)
+	{
+		for (int v : vertices)
+		{
+			num[v] = -1;
+		}
+		int[] order = new int[vertices.length];
+		int[] code = new int[10*vertices.length];
+		int found = 1;
+		int c = 0;
+		order[0] = start;
+		num[start] = 0;
+		pot[start] = 0;
+		for (int i=0; i<found; i++)
+		{
+			int v = order[i];
+			code[c++] = G.type[v];
+			for (int s=0; s<3; s++)
+			{
+				int e = G.next[3*v+s];
+				int u = e/3;
+				boolean out = StrandDiagram.Graph.isOut(G.type[v], s);
+				long w = G.weight[3*v+s];
+				if (num[u]<0)
+				{
+					num[u] = found;
+					order[found++] = u;
+					pot[u] = out ? pot[v]+w : pot[v]-w;
+				}
+				code[c++] = num[u];
+				code[c++] = e%3;
+				code[c++] = (int) (out ? w+pot[v]-pot[u] : w+pot[u]-pot[v]);
+			}
+		}
+		return code;
+	}
+
+	/**
+	 * Tells whether two elements of F, T or V are conjugate in V
+	 */
+	public static boolean areConjugate(TreePair A, TreePair B) throws TreeNodeException
+	{
+		return new ConjugacyEngine(A).isConjugateTo(new ConjugacyEngine(B));
+	}
+
+	/**
+	 * Finds an element of V conjugating A to B
+	 * @return C such that C A C^-1 = B (A^C = B in the calculator), or null if A and B are not conjugate
+	 */
+	public static TreePair conjugator(TreePair A, TreePair B) throws TreeNodeException
+	{
+		return new ConjugacyEngine(A).conjugatorTo(new ConjugacyEngine(B));
+	}
+
+	/**
+	 * Sorts elements of F, T or V (e.g. the words of a sphere) into conjugacy classes of V
+	 * @param elements the elements
+	 * @return the classes, keyed by their invariants, in the order they are first met
+	 */
+	public static LinkedHashMap<String, ArrayList<TreePair>> classify(Collection<TreePair> elements) throws TreeNodeException
+	{
+		LinkedHashMap<String, ArrayList<TreePair>> classes = new LinkedHashMap<String, ArrayList<TreePair>>();
+		for (TreePair A : elements)
+		{
+			String key = new ConjugacyEngine(A).getInvariant();
+			ArrayList<TreePair> C = classes.get(key);
+			if (C==null)
+			{
+				C = new ArrayList<TreePair>();
+				classes.put(key, C);
+			}
+			C.add(A);
+		}
+		return classes;
+	}
+}
@@ -0,0 +1,211 @@
+package nvTrees;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+
+/**
+ * Cheap conjugacy invariants of an element g of nV (or of F, T, V), used to sort a large set of
+ * elements into buckets before any expensive conjugacy search: conjugate elements always land
+ * in the same bucket, so the search only has to compare elements within a bucket.
+ * <br>
+ * Only quantities preserved by conjugation in nV are used. For L = 1, ..., maxPower the invariants record:
+ * <ul>
+ * <li>whether g^L is the identity on some open set, i.e. whether some block of the pair of g^L
+ * is mapped onto itself (an affine map that is the identity on a small block is the identity on
+ * the whole block that contains it, so this does not depend on the pair chosen);
+ * <li>whether g^L is the identity.
+ * </ul>
+ * The shape of the trees, the cycle type of the permutation and the number of fixed blocks
+ * all change under conjugation, so they are not used.
+ * <br>
+ * This takes maxPower compositions; once a power is the identity, the rest repeat.
+ * @author Romwell
+ *
+ */
+public class ConjugacyInvariants {
+
+	/**
+	 * The default number of powers looked at
+	 */
+	public static final int DEFAULT_MAX_POWER = 6;
+
+	/**
+	 * fixed[L-1]: g^L is the identity on some block
+	 */
+	private final boolean[] fixed;
+
+	/**
+	 * The least L<=maxPower with g^L = 1, or 0 if there is none
+	 */
+	private final int order;
+
+	/**
+	 * Hash of the invariants
+	 */
+	private final long hash;
+
+	/**
+	 * Computes the invariants of an element, looking at DEFAULT_MAX_POWER powers
+	 * @param A the element
+	 */
+	public ConjugacyInvariants(TreePair A) throws TreeNodeException
+	{
+		this(A, DEFAULT_MAX_POWER);
+	}
+
+	/**
+	 * Computes the invariants of an element
+	 * @param A the element
+	 * @param maxPower the number of powers to look at
+	 */
+	public ConjugacyInvariants(TreePair A, int maxPower) throws TreeNodeException
+	{
+		if (maxPower<=0)
+		{
+			throw new TreeNodeException("You specified an invalid Maximum Power: "+maxPower);
+		}
+		fixed = new boolean[maxPower];
+		int ord = 0;
+		TreePair P = A;
+		for (int L=1; L<=maxPower; L++)
+		{
+			if (ord>0)
+			{
+				//g^L = g^(L mod ord), and g^ord is the identity
+				fixed[L-1] = (L % ord==0) || fixed[L % ord - 1];
+				continue;
+			}
+			int count = countFixedBlocks(P);
+			fixed[L-1] = (count>0);
+			if (count==P.numBlocks())
+			{
+				ord = L;
+			}
+			else if (L<maxPower)
+			{
+				P = TreePair.compose(P, A);
+			}
+		}
+		order = ord;
+		long h = order;
+		for (int i=0; i<fixed.length; i++)
+		{
+			h = Fingerprint.mix(2*h + (fixed[i] ? 1 : 0));
+		}
+		hash = h;
+	}
+
+	/**
+	 * Counts the blocks of the left tree of a pair that the pair maps onto themselves
+	 */
+	private static int countFixedBlocks(TreePair P) throws TreeNodeException
+	{
+		int count = 0;
+		LeafCursor C = P.left_tree.leafCursor();
+		while (C.next())
+		{
+			if (C.getPath().equals(P.getPermutation().get(C.getPath())))
+			{
+				count++;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Returns the number of powers looked at
+	 */
+	public int getMaxPower()
+	{
+		return fixed.length;
+	}
+
+	/**
+	 * Tells whether g^L is the identity on some open set
+	 * @param L the power, 1<=L<=getMaxPower()
+	 */
+	public boolean hasFixedBlock(int L)
+	{
+		return fixed[L-1];
+	}
+
+	/**
+	 * Returns the order of g if it is at most getMaxPower(), 0 otherwise
+	 */
+	public int getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Returns the hash of the invariants
+	 */
+	public long getHash()
+	{
+		return hash;
+	}
+
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof ConjugacyInvariants))
+		{
+			return false;
+		}
+		ConjugacyInvariants other = (ConjugacyInvariants) o;
+		return (hash==other.hash) && (order==other.order) && Arrays.equals(fixed, other.fixed);
+	}
+
+	public int hashCode()
+	{
+		return (int)(hash ^ (hash>>>32));
+	}
+
+	/**
+	 * Returns the invariants as a string, e.g. "order 0, fixed blocks at powers 2 4 6"
+	 */
+	public String toString()
+	{
+		StringBuilder ans = new StringBuilder("order ").append(order).append(", fixed blocks at powers");
+		for (int i=0; i<fixed.length; i++)
+		{
+			if (fixed[i])
+			{
+				ans.append(' ').append(i+1);
+			}
+		}
+		return ans.toString();
+	}
+
+	/**
+	 * Sorts elements (e.g. the words of a sphere) into buckets of candidate conjugacy classes of nV:
+	 * conjugate elements are always in the same bucket.
+	 * @param elements the elements
+	 * @param maxPower the number of powers to look at
+	 * @return the buckets, keyed by their invariants, in the order they are first met
+	 */
+	public static LinkedHashMap<ConjugacyInvariants, ArrayList<TreePair>> partition(Collection<TreePair> elements, int maxPower) throws TreeNodeException
+	{
+		LinkedHashMap<ConjugacyInvariants, ArrayList<TreePair>> buckets = new LinkedHashMap<ConjugacyInvariants, ArrayList<TreePair>>();
+		for (TreePair A : elements)
+		{
+			ConjugacyInvariants key = new ConjugacyInvariants(A, maxPower);
+			ArrayList<TreePair> C = buckets.get(key);
+			if (C==null)
+			{
+				C = new ArrayList<TreePair>();
+				buckets.put(key, C);
+			}
+			C.add(A);
+		}
+		return buckets;
+	}
+
+	/**
+	 * Sorts elements into buckets of candidate conjugacy classes, looking at DEFAULT_MAX_POWER powers
+	 */
+	public static LinkedHashMap<ConjugacyInvariants, ArrayList<TreePair>> partition(Collection<TreePair> elements) throws TreeNodeException
+	{
+		return partition(elements, DEFAULT_MAX_POWER);
+	}
+}
@@ -93,6 +93,7 @@ public class ExpressionParser {
 		unary_operators.add("@"); //(un)reduce to smallest grid on the left
 		unary_operators.add("growth "); //growth [g_1,g_2,..g_k,N] computes the sizes of B_1(id), ... B_N(id) in the GROUP generated by g1_,...,g_k 
 		unary_operators.add("semi "); //same as growth, but for SEMIGROUP
+		unary_operators.add("order "); //order A: the order of A, with its periodic orbits or attracting/repelling blocks
 		
 		binary_opeators.add("^"); //conjugation and power
 		binary_opeators.add("*"); //multiplication
@@ -101,6 +102,7 @@ public class ExpressionParser {
 		//used for demonstration purposes
 		binary_opeators.add("<"); //A<B: refine right tree of A to the left tree of B
 		binary_opeators.add(">"); //A>B: refine the left tree of B to right tree of A 		
+		binary_opeators.add("~"); //A~B: a conjugator C with A^C = B, if A and B (in F, T or V) are conjugate
 		
 		initialized = true;
 	}
@@ -273,7 +275,7 @@ public class ExpressionParser {
 			else if (operator.equals("$")) //$
 			{
 				if (O instanceof TreePair) {
-					TreePair P = ((TreePair) O).duplicate();
+					TreePair P = (TreePair) O;
 					ans = P.reduce();
 					return ans;
 				}
@@ -282,12 +284,21 @@ public class ExpressionParser {
 			else if (operator.equals("@")) //@
 			{
 				if (O instanceof TreePair) {
-					TreePair P = ((TreePair) O).duplicate();
+					TreePair P = (TreePair) O;
 					ans = P.reduce(false);
 					return ans;
 				}
 				else {throwOpException(operator, O);}
 			}
+			else if (operator.equals("order ")) //order
+			{
+				if (O instanceof TreePair) {
+					TreePair P = (TreePair) O;
+					ans = new PairDynamics(P).toString() + "\n  \n";
+					return ans;
+				}
+				else {throwOpException(operator, O);}
+			}
 			else if (operator.equals("growth ") || operator.equals("semi ")) //growth and semigrowth 
 			{
 				if (O instanceof ArrayList) {
@@ -333,7 +344,24 @@ public class ExpressionParser {
 						}
 					}
 					String growth_str="";
-					int[] growth_values = TreePair.growth(generators, N);
+					//the generating set of the group is symmetric, so only two spheres need to be kept
+					int[] growth_values;
+					if (operator.equals("growth "))
+					{
+						GrowthEngine engine = new GrowthEngine(generators);
+						try
+						{
+							growth_values = engine.sphereGrowth(N, false);
+						}
+						finally
+						{
+							engine.close();
+						}
+					}
+					else
+					{
+						growth_values = TreePair.growth(generators, N);
+					}
 					growth_str += growth_values[0];
 					for (int i=1; i<growth_values.length; i++)
 					{
@@ -418,6 +446,19 @@ public class ExpressionParser {
 				else {throwOpException(operator, L, R);}
 								
 			}
+			else if (operator.equals("~")) //conjugacy
+			{
+				if ((L instanceof TreePair)&&(R instanceof TreePair))
+				{
+					TreePair C = ConjugacyEngine.conjugator((TreePair)L, (TreePair)R);
+					if (C==null)
+					{
+						return "not conjugate\n  \n";
+					}
+					return C;
+				}
+				else {throwOpException(operator, L, R);}
+			}
 			else throw new TreeNodeException(operator+" is not a valid unary operator!");
 			return ans;
 	}
@@ -0,0 +1,166 @@
+package nvTrees;
+import java.util.Collection;
+import java.util.Map;
+
+/**
+ * A 128-bit fingerprint of a pattern or of a pattern pair.
+ * <br>
+ * The fingerprint only depends on the set of blocks (or on the block map),
+ * not on the shape of the trees or the order of the leaves: each block is hashed
+ * on its own and the hashes are added up. Two patterns with different fingerprints
+ * are different; patterns with the same fingerprint are the same with overwhelming
+ * probability, so a full comparison is only needed when the fingerprints match.
+ * <br>
+ * For tree pairs, the fingerprint is taken of the canonical form
+ * (see {@link TreePair#fingerprint()}), so it identifies the element of the group.
+ * @author Romwell
+ *
+ */
+public final class Fingerprint {
+
+	/**
+	 * Seeds of the two halves of the fingerprint
+	 */
+	private static final long SEED_HI = 0x243F6A8885A308D3L;
+	private static final long SEED_LO = 0x13198A2E03707344L;
+
+	/**
+	 * Seed used to chain the image of a block after the block itself
+	 */
+	private static final long PAIR = 0xA4093822299F31D0L;
+
+	/**
+	 * The high and low 64 bits of the fingerprint
+	 */
+	private final long hi;
+	private final long lo;
+
+	/**
+	 * Constructs a fingerprint from its two halves
+	 * @param hi the high 64 bits
+	 * @param lo the low 64 bits
+	 */
+	public Fingerprint(long hi, long lo)
+	{
+		this.hi = hi;
+		this.lo = lo;
+	}
+
+	/**
+	 * Computes the fingerprint of a pattern
+	 * @param pattern the blocks of the pattern (as returned by detailedDFS())
+	 * @return the fingerprint of the pattern
+	 */
+	public static Fingerprint of(Collection<SuperPath> pattern)
+	{
+		long hi = 0, lo = 0;
+		for (SuperPath P : pattern)
+		{
+			hi += P.hash64(SEED_HI);
+			lo += P.hash64(SEED_LO);
+		}
+		return finish(hi, lo, pattern.size());
+	}
+
+	/**
+	 * Computes the fingerprint of the pattern of a tree, walking its leaves with a cursor.
+	 * This is the same as the fingerprint of detailedDFS(), without building the list.
+	 * @param leaves a cursor before the first leaf of the tree
+	 * @return the fingerprint of the pattern
+	 */
+	static Fingerprint of(LeafCursor leaves) throws TreeNodeException
+	{
+		long hi = 0, lo = 0;
+		int n = 0;
+		while (leaves.next())
+		{
+			SuperPath P = leaves.getPath();
+			hi += P.hash64(SEED_HI);
+			lo += P.hash64(SEED_LO);
+			n++;
+		}
+		return finish(hi, lo, n);
+	}
+
+	/**
+	 * Computes the fingerprint of a pattern pair given by its block map
+	 * @param map the map from the blocks of the left pattern to the blocks of the right one
+	 * @return the fingerprint of the map
+	 */
+	public static Fingerprint of(Map<SuperPath, SuperPath> map)
+	{
+		long hi = 0, lo = 0;
+		for (Map.Entry<SuperPath, SuperPath> e : map.entrySet())
+		{
+			hi += e.getValue().hash64(e.getKey().hash64(SEED_HI) ^ PAIR);
+			lo += e.getValue().hash64(e.getKey().hash64(SEED_LO) ^ PAIR);
+		}
+		return finish(hi, lo, map.size());
+	}
+
+	/**
+	 * Mixes the number of blocks into the sums of the block hashes
+	 */
+	private static Fingerprint finish(long hi, long lo, int n)
+	{
+		return new Fingerprint(mix(hi ^ n), mix(lo + mix(hi) + n));
+	}
+
+	/**
+	 * Scrambles the bits of a 64-bit value (the finalizer of SplitMix64).
+	 * This is a bijection, so different inputs give different outputs.
+	 * @param z the value to scramble
+	 * @return the scrambled value
+	 */
+	static long mix(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Returns the high 64 bits of the fingerprint
+	 */
+	public long getHigh()
+	{
+		return hi;
+	}
+
+	/**
+	 * Returns the low 64 bits of the fingerprint
+	 */
+	public long getLow()
+	{
+		return lo;
+	}
+
+	/**
+	 * Tells whether this fingerprint is the same as some other fingerprint
+	 */
+	public boolean equals(Object o)
+	{
+		if (!(o instanceof Fingerprint))
+		{
+			return false;
+		}
+		Fingerprint f = (Fingerprint) o;
+		return (hi == f.hi) && (lo == f.lo);
+	}
+
+	/**
+	 * Returns a hashCode for this fingerprint
+	 */
+	public int hashCode()
+	{
+		return (int) lo;
+	}
+
+	/**
+	 * Returns the fingerprint as 32 hex digits
+	 */
+	public String toString()
+	{
+		return String.format("%016x%016x", hi, lo);
+	}
+}
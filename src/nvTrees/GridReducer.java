@@ -0,0 +1,416 @@
+package nvTrees;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Computes the canonical form of a tree pair (see {@link TreePair#reduce(boolean)}) without cutting
+ * the left tree into the full flat grid.
+ * <br>
+ * The map is kept as a set of regions. A region is a block of the left pattern cut into equal cells,
+ * all mapped by the same affine map, so it stands for all of its cells at once. At the start the
+ * regions are the leaves of the left tree, cut into the cells of the flat grid (for elements of
+ * F, T and V, each leaf is one cell). The merges of reduceGrid() and mergeBlocks() are then made on
+ * the regions, one color c at a time:
+ * <ul>
+ * <li>if the cells of a region are thinner along c than the region, each of them merges with its
+ * sibling inside the region, so the cells of the region just get twice as wide;
+ * <li>otherwise, the siblings of its cells lie across the region's own sibling along c. The region and
+ * the one across are cut in halves, as long as their cells allow it, until they are siblings;
+ * then either every cell merges with the cell across, and the two regions merge, or none do.
+ * </ul>
+ * Cutting a region does not change its cells, so the cells, and the merges made in each phase,
+ * are the same as the ones made on the grid. The cells are only listed at the end,
+ * as the blocks of the canonical pair.
+ * <br>
+ * The region containing a block is found by walking down the original left tree,
+ * and then following the cuts and merges made to the region of the leaf reached.
+ * @author Romwell
+ *
+ */
+public class GridReducer {
+
+	/**
+	 * A block of the left pattern, its image, and the size of its cells.
+	 * A region that was cut or merged is dead, and points to the regions that replaced it.
+	 */
+	static class Region
+	{
+		/**
+		 * The block and its image (interned)
+		 */
+		final SuperPath left, right;
+
+		/**
+		 * cell[i] = length in color i of the paths of the cells
+		 */
+		final int[] cell;
+
+		/**
+		 * The region this one was merged into
+		 */
+		Region merged = null;
+
+		/**
+		 * The halves this region was cut into, and the color of the cut
+		 */
+		Region low = null, high = null;
+		int cutColor = 0;
+
+		Region(SuperPath left, SuperPath right, int[] cell)
+		{
+			this.left = left.intern();
+			this.right = right.intern();
+			this.cell = cell;
+		}
+
+		boolean isDead()
+		{
+			return (merged!=null)||(low!=null);
+		}
+
+		/**
+		 * Tells whether the region is a single cell
+		 */
+		boolean isCell()
+		{
+			for (int i=1; i<NvTree.MAXCOL; i++)
+			{
+				if (cell[i]!=left.getColLength(i))
+				{
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * A leaf of the original left tree, and the region it was in at the start
+	 */
+	private final HashMap<TreeNode, Region> leafRegions = new HashMap<TreeNode, Region>();
+
+	/**
+	 * The original left tree
+	 */
+	private final NvTree tree;
+
+	/**
+	 * The regions; dead regions are dropped at the start of each phase
+	 */
+	private ArrayList<Region> regions = new ArrayList<Region>();
+
+	/**
+	 * The largest color of the left tree
+	 */
+	private final int maxColor;
+
+	/**
+	 * Sets up the regions of a tree pair
+	 * @param A a tree pair
+	 */
+	public GridReducer(TreePair A) throws TreeNodeException
+	{
+		this(A, TreePair.isMultiDimensional(A));
+	}
+
+	/**
+	 * Sets up the regions of a tree pair
+	 * @param A a tree pair
+	 * @param flat if true, the cells are the ones of the flat grid; 
+	 * otherwise each leaf of the left tree is one cell
+	 */
+	GridReducer(TreePair A, boolean flat) throws TreeNodeException
+	{
+		tree = A.left_tree;
+		int[] depths = tree.getColorDepths();
+		int top = 1;
+		for (int i=1; i<NvTree.MAXCOL; i++)
+		{
+			if (depths[i]>0) {top = i;}
+		}
+		maxColor = top;
+		LeafCursor C = tree.leafCursor();
+		while (C.next())
+		{
+			SuperPath path = C.getPath();
+			int[] cell = new int[NvTree.MAXCOL];
+			for (int i=1; i<NvTree.MAXCOL; i++)
+			{
+				cell[i] = flat ? Math.max(depths[i], path.getColLength(i)) : path.getColLength(i);
+			}
+			Region R = new Region(path, A.getPermutation().get(path), cell);
+			leafRegions.put(C.getNode(), R);
+			regions.add(R);
+		}
+	}
+
+	/**
+	 * Halves the grid along colors 1, 2, ... as reduceGrid() does: along each color,
+	 * for as long as every cell merges with its sibling
+	 */
+	public void reduceGrid() throws TreeNodeException
+	{
+		int c = 1;
+		while ((c<=maxColor)&&!isSingleCell())
+		{
+			if (!mergeAlong(c, true))
+			{
+				c++;
+			}
+		}
+	}
+
+	/**
+	 * Merges cells color-greedily as mergeBlocks() does: all the mergeable pairs along the lowest
+	 * color that has some, starting again from color 1 after each round of merges
+	 */
+	public void mergeBlocks() throws TreeNodeException
+	{
+		int c = 1;
+		while ((c<=maxColor)&&!isSingleCell())
+		{
+			c = mergeAlong(c, false) ? 1 : c+1;
+		}
+	}
+
+	/**
+	 * Returns the map of the cells, from left blocks to right blocks
+	 */
+	public HashMap<SuperPath, SuperPath> getMap() throws TreeNodeException
+	{
+		return getMap(regions);
+	}
+
+	/**
+	 * Returns the map of the cells of some regions
+	 * @param regions the regions; the dead ones are skipped
+	 */
+	static HashMap<SuperPath, SuperPath> getMap(ArrayList<Region> regions) throws TreeNodeException
+	{
+		HashMap<SuperPath, SuperPath> map = new HashMap<SuperPath, SuperPath>();
+		for (Region R : regions)
+		{
+			if (!R.isDead())
+			{
+				listCells(R.left, R.right, R.cell, 1, map);
+			}
+		}
+		return map;
+	}
+
+	/**
+	 * Returns a copy of the regions alive now, so that their cells can be listed
+	 * with getMap(ArrayList) after more merges are made
+	 */
+	ArrayList<Region> getRegions()
+	{
+		ArrayList<Region> copy = new ArrayList<Region>();
+		for (Region R : regions)
+		{
+			if (!R.isDead())
+			{
+				copy.add(new Region(R.left, R.right, R.cell.clone()));
+			}
+		}
+		return copy;
+	}
+
+	/**
+	 * Puts the cells of a block and their images in a map, cutting the block along colors i, i+1, ...
+	 */
+	private static void listCells(SuperPath L, SuperPath R, int[] cell, int i, HashMap<SuperPath, SuperPath> map) throws TreeNodeException
+	{
+		while ((i<NvTree.MAXCOL)&&(L.getColLength(i)>=cell[i]))
+		{
+			i++;
+		}
+		if (i==NvTree.MAXCOL)
+		{
+			map.put(L.intern(), R.intern());
+			return;
+		}
+		for (int bit=0; bit<=1; bit++)
+		{
+			SuperPath LH = new SuperPath(L);
+			SuperPath RH = new SuperPath(R);
+			LH.appendDown(i, bit==0);
+			RH.appendDown(i, bit==0);
+			listCells(LH, RH, cell, i, map);
+		}
+	}
+
+	/**
+	 * Tells whether only one cell is left
+	 */
+	private boolean isSingleCell()
+	{
+		Region alive = null;
+		for (Region R : regions)
+		{
+			if (!R.isDead())
+			{
+				if (alive!=null)
+				{
+					return false;
+				}
+				alive = R;
+			}
+		}
+		return alive.isCell();
+	}
+
+	/**
+	 * Merges every cell that can be merged with its sibling along a color
+	 * @param c the color
+	 * @param all if true, nothing is merged unless every cell can be
+	 * @return true if some cells were merged
+	 */
+	private boolean mergeAlong(int c, boolean all) throws TreeNodeException
+	{
+		ArrayList<Region> live = new ArrayList<Region>();
+		for (Region R : regions)
+		{
+			if (!R.isDead()) {live.add(R);}
+		}
+		regions = live;
+		ArrayList<Region> todo = new ArrayList<Region>(live);
+		ArrayList<Region> widened = new ArrayList<Region>();
+		ArrayList<Region> pairs = new ArrayList<Region>(); //consecutive regions are merged
+		HashSet<Region> paired = new HashSet<Region>();
+		boolean complete = true;
+		while (!todo.isEmpty())
+		{
+			Region X = todo.remove(todo.size()-1);
+			if (X.isDead() || paired.contains(X))
+			{
+				continue;
+			}
+			int len = X.left.getColLength(c);
+			if (X.cell[c]>len)
+			{
+				widened.add(X);	//the siblings of the cells are inside X
+				continue;
+			}
+			if (len==0)
+			{
+				complete = false;
+				continue;
+			}
+			//the region across contains the first corner of the sibling of X
+			SuperPath S = X.left.sibling(c);
+			Region Q = regionAt(S);
+			if ((Q.cell[c]!=Q.left.getColLength(c)) || paired.contains(Q))
+			{
+				complete = false;
+				continue;
+			}
+			for (int i=1; i<=maxColor; i++)
+			{
+				if (i==c) {continue;}
+				while ((X.left.getColLength(i)<Q.left.getColLength(i))&&(X.left.getColLength(i)<X.cell[i]))
+				{
+					X = cut(X, i, true, todo);
+				}
+				while ((Q.left.getColLength(i)<X.left.getColLength(i))&&(Q.left.getColLength(i)<Q.cell[i]))
+				{
+					Q = cut(Q, i, S.getBit(i, Q.left.getColLength(i))==0, todo);
+				}
+			}
+			if (Arrays.equals(X.cell, Q.cell) && (X.left.isAdjacentTo(Q.left)==c)
+					&& TreePair.areMergeable(X.left, Q.left, X.right, Q.right))
+			{
+				paired.add(X);
+				paired.add(Q);
+				pairs.add(X);
+				pairs.add(Q);
+			}
+			else
+			{
+				complete = false;
+			}
+		}
+		if ((all && !complete) || (widened.isEmpty() && pairs.isEmpty()))
+		{
+			return false;
+		}
+		for (Region X : widened)
+		{
+			X.cell[c]--;
+		}
+		for (int j=0; j<pairs.size(); j+=2)
+		{
+			Region X = pairs.get(j);
+			Region Q = pairs.get(j+1);
+			SuperPath L = new SuperPath(X.left);
+			SuperPath R = new SuperPath(X.right);
+			L.goUp(c);
+			R.goUp(c);
+			int[] cell = X.cell.clone();
+			cell[c]--;
+			Region M = new Region(L, R, cell);
+			X.merged = M;
+			Q.merged = M;
+			regions.add(M);
+		}
+		return true;
+	}
+
+	/**
+	 * Cuts a region in half along a color
+	 * @param X the region
+	 * @param i the color
+	 * @param keepLow true to return the lower half
+	 * @param todo the list to put the other half in
+	 * @return the half kept
+	 */
+	private Region cut(Region X, int i, boolean keepLow, ArrayList<Region> todo) throws TreeNodeException
+	{
+		Region[] halves = new Region[2];
+		for (int bit=0; bit<=1; bit++)
+		{
+			SuperPath L = new SuperPath(X.left);
+			SuperPath R = new SuperPath(X.right);
+			L.appendDown(i, bit==0);
+			R.appendDown(i, bit==0);
+			halves[bit] = new Region(L, R, X.cell.clone());
+			regions.add(halves[bit]);
+		}
+		X.low = halves[0];
+		X.high = halves[1];
+		X.cutColor = i;
+		todo.add(keepLow ? halves[1] : halves[0]);
+		return keepLow ? halves[0] : halves[1];
+	}
+
+	/**
+	 * Finds the region that contains the first corner of a block
+	 * (the corner reached by always going left below the block)
+	 */
+	private Region regionAt(SuperPath B) throws TreeNodeException
+	{
+		TreeNode node = tree.rootNode;
+		int[] len = new int[NvTree.MAXCOL];
+		while (!node.isLeaf())
+		{
+			int col = node.color;
+			boolean goLeft = (len[col]>=B.getColLength(col)) || (B.getBit(col, len[col])==0);
+			len[col]++;
+			node = goLeft ? node.left : node.right;
+		}
+		Region R = leafRegions.get(node);
+		while (R.isDead())
+		{
+			if (R.merged!=null)
+			{
+				R = R.merged;
+				continue;
+			}
+			int col = R.cutColor;
+			int l = R.left.getColLength(col);
+			R = ((l>=B.getColLength(col)) || (B.getBit(col, l)==0)) ? R.low : R.high;
+		}
+		return R;
+	}
+}
@@ -0,0 +1,271 @@
+package nvTrees;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The state of a growth computation after some radius, as kept by {@link GrowthEngine}.
+ * <br>
+ * The state holds the generators, the counts found so far, the frontier (the words
+ * of the last sphere) and the words seen before it. It can be written to a file after
+ * every radius and read back later, so that a long computation can be resumed
+ * from the last completed radius instead of from the start.
+ * <br>
+ * In the file, the words seen before the frontier are only kept as fingerprints;
+ * after resuming, matching fingerprints of those words are trusted.
+ * @author Romwell
+ *
+ */
+public class GrowthCheckpoint {
+
+	/**
+	 * First line of every checkpoint file
+	 */
+	private static final String HEADER = "nvTrees growth checkpoint 1";
+
+	/**
+	 * The generators of the computation
+	 */
+	final ArrayList<TreePair> generators;
+
+	/**
+	 * True for group growth, where only the last two spheres are kept;
+	 * false for semigroup growth, where every word seen is kept
+	 */
+	final boolean group;
+
+	/**
+	 * True if the words of the frontier are kept as fingerprints only
+	 */
+	final boolean fingerprintsOnly;
+
+	/**
+	 * The radius the computation should reach
+	 */
+	int target;
+
+	/**
+	 * The last completed radius
+	 */
+	int radius = 0;
+
+	/**
+	 * counts[i] is the number of words of length at most i, for i up to radius
+	 */
+	int[] counts = {1};
+
+	/**
+	 * The words of length radius, as tree pairs
+	 */
+	ArrayList<TreePair> frontier = new ArrayList<TreePair>();
+
+	/**
+	 * The words of the frontier, keyed by fingerprint (null values if fingerprintsOnly)
+	 */
+	HashMap<Fingerprint, TreePair> current = new HashMap<Fingerprint, TreePair>();
+
+	/**
+	 * The words seen before the frontier that can still show up again:
+	 * sphere radius-1 for group growth, the whole ball of radius-1 for semigroup growth.
+	 * Values are null for words only known by fingerprint.
+	 */
+	HashMap<Fingerprint, TreePair> previous = new HashMap<Fingerprint, TreePair>();
+
+	/**
+	 * Starts a new computation at radius 0
+	 * @param generators the generating set
+	 * @param target the radius to compute up to
+	 * @param group true for group growth, false for semigroup growth
+	 * @param fingerprintsOnly true if matching fingerprints should be trusted
+	 */
+	GrowthCheckpoint(ArrayList<TreePair> generators, int target, boolean group, boolean fingerprintsOnly) throws TreeNodeException
+	{
+		this.generators = generators;
+		this.target = target;
+		this.group = group;
+		this.fingerprintsOnly = fingerprintsOnly;
+		TreePair id = new TreePair("0,0,1").reduce().freeze();
+		frontier.add(id);
+		current.put(id.fingerprint(), fingerprintsOnly ? null : id);
+	}
+
+	/**
+	 * Moves on to the next radius
+	 * @param next the words of the next sphere, reduced and frozen
+	 */
+	void advance(ArrayList<TreePair> next) throws TreeNodeException
+	{
+		if (group)
+		{
+			previous = current;
+			for (Map.Entry<Fingerprint, TreePair> e : previous.entrySet())
+			{
+				e.setValue(null);
+			}
+		}
+		else
+		{
+			previous.putAll(current);
+		}
+		current = new HashMap<Fingerprint, TreePair>();
+		for (TreePair w : next)
+		{
+			current.put(w.fingerprint(), fingerprintsOnly ? null : w);
+		}
+		frontier = next;
+		radius++;
+		counts = Arrays.copyOf(counts, radius+1);
+		counts[radius] = counts[radius-1] + next.size();
+	}
+
+	/**
+	 * Returns the counts up to radius n, which must not exceed the last completed radius
+	 */
+	int[] getCounts(int n)
+	{
+		return Arrays.copyOf(counts, n+1);
+	}
+
+	/**
+	 * Writes this state to a file. The file is first written under a temporary name
+	 * and then moved in place, so an interrupted write leaves the last checkpoint intact.
+	 * @param file the checkpoint file
+	 */
+	void write(File file) throws TreeNodeException
+	{
+		File tmp = new File(file.getPath()+".tmp");
+		try
+		{
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1<<16));
+			try
+			{
+				out.writeUTF(HEADER);
+				out.writeBoolean(group);
+				out.writeBoolean(fingerprintsOnly);
+				out.writeInt(generators.size());
+				for (TreePair g : generators)
+				{
+					writeString(out, g.toString());
+				}
+				out.writeInt(target);
+				out.writeInt(radius);
+				for (int c : counts)
+				{
+					out.writeInt(c);
+				}
+				out.writeInt(previous.size());
+				for (Fingerprint f : previous.keySet())
+				{
+					out.writeLong(f.getHigh());
+					out.writeLong(f.getLow());
+				}
+				out.writeInt(frontier.size());
+				for (TreePair w : frontier)
+				{
+					Fingerprint f = w.fingerprint();
+					out.writeLong(f.getHigh());
+					out.writeLong(f.getLow());
+					writeString(out, w.toString());
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e)
+		{
+			throw new TreeNodeException("Could not write the growth checkpoint "+file+": \n"+e.getMessage());
+		}
+	}
+
+	/**
+	 * Reads a state written by write()
+	 * @param file the checkpoint file
+	 * @return the state of the computation after the last completed radius
+	 */
+	static GrowthCheckpoint read(File file) throws TreeNodeException
+	{
+		try
+		{
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1<<16));
+			try
+			{
+				if (!HEADER.equals(in.readUTF()))
+				{
+					throw new TreeNodeException(file+" is not a growth checkpoint");
+				}
+				boolean group = in.readBoolean();
+				boolean fingerprintsOnly = in.readBoolean();
+				ArrayList<TreePair> generators = new ArrayList<TreePair>();
+				for (int i=in.readInt(); i>0; i--)
+				{
+					generators.add(new TreePair(readString(in)).freeze());
+				}
+				GrowthCheckpoint state = new GrowthCheckpoint(generators, in.readInt(), group, fingerprintsOnly);
+				state.radius = in.readInt();
+				state.counts = new int[state.radius+1];
+				for (int i=0; i<=state.radius; i++)
+				{
+					state.counts[i] = in.readInt();
+				}
+				state.previous.clear();
+				for (int i=in.readInt(); i>0; i--)
+				{
+					state.previous.put(new Fingerprint(in.readLong(), in.readLong()), null);
+				}
+				state.frontier.clear();
+				state.current.clear();
+				for (int i=in.readInt(); i>0; i--)
+				{
+					Fingerprint f = new Fingerprint(in.readLong(), in.readLong());
+					TreePair w = new TreePair(readString(in)).freeze();
+					state.frontier.add(w);
+					state.current.put(f, fingerprintsOnly ? null : w);
+				}
+				return state;
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+		catch (IOException e)
+		{
+			throw new TreeNodeException("Could not read the growth checkpoint "+file+": \n"+e.getMessage());
+		}
+	}
+
+	/**
+	 * Writes a string of any length (writeUTF is limited to 64K)
+	 */
+	private static void writeString(DataOutputStream out, String s) throws IOException
+	{
+		byte[] b = s.getBytes(StandardCharsets.UTF_8);
+		out.writeInt(b.length);
+		out.write(b);
+	}
+
+	/**
+	 * Reads a string written by writeString()
+	 */
+	private static String readString(DataInputStream in) throws IOException
+	{
+		byte[] b = new byte[in.readInt()];
+		in.readFully(b);
+		return new String(b, StandardCharsets.UTF_8);
+	}
+}
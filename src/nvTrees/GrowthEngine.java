@@ -0,0 +1,541 @@
+package nvTrees;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Computes growth functions of semigroups generated by tree pairs on several cores.
+ * <br>
+ * The words are found radius by radius, as in {@link TreePair#growth(ArrayList, int)}:
+ * the words of length i+1 are the words of length i (the frontier) times a generator.
+ * The frontier is split between the threads of a fork-join pool; every thread composes
+ * and reduces its words and puts them into a concurrent map keyed by the fingerprint
+ * of the canonical form. Whoever puts a word in first adds it to the next frontier,
+ * so each element is counted once no matter how the threads interleave,
+ * and the counts are the same as those of the serial computation.
+ * <br>
+ * The generators are frozen (copied first if they were not immutable), so they can be
+ * shared between the threads.
+ * <br>
+ * For a symmetric generating set, {@link #sphereGrowth(int, boolean)} only keeps the last 
+ * two spheres: a word of length k+1 either lies in sphere k-1 or k, or is new.
+ * Memory then grows with the spheres, not with the whole ball.
+ * {@link #diskGrowth(int, File, int)} keeps the spheres in sorted files instead.
+ * <br>
+ * growth() and sphereGrowth() can save a {@link GrowthCheckpoint} after every radius
+ * (see {@link #setCheckpoint(File)}), and {@link #resume(File, int)} continues from it.
+ * <br>
+ * An engine made with a given number of threads starts a pool of its own;
+ * call {@link #close()} when done with it so that the threads are shut down.
+ * @author Romwell
+ *
+ */
+public class GrowthEngine implements AutoCloseable {
+
+	/**
+	 * Frontier ranges of at most this many words are expanded by one task
+	 */
+	private static final int GRAIN = 8;
+	
+	/**
+	 * No layers of known words besides the ones being added to
+	 */
+	private static final ArrayList<HashMap<Fingerprint, TreePair>> NO_LAYERS = new ArrayList<HashMap<Fingerprint, TreePair>>();
+
+	/**
+	 * No sorted files of known words
+	 */
+	private static final RunFile[] NO_RUNS = new RunFile[0];
+
+	/**
+	 * The generators, all of them immutable
+	 */
+	private final ArrayList<TreePair> generators = new ArrayList<TreePair>();
+
+	/**
+	 * The pool that runs the tasks; null if the computation runs on the calling thread
+	 */
+	private final ForkJoinPool pool;
+
+	/**
+	 * The file the state is saved to after every radius; null for no checkpoints
+	 */
+	private File checkpoint = null;
+
+	/**
+	 * Creates a growth engine that runs on the common fork-join pool,
+	 * which uses all available processors
+	 * @param S the generating set
+	 */
+	public GrowthEngine(ArrayList<TreePair> S) throws TreeNodeException
+	{
+		freezeGenerators(S);
+		pool = ForkJoinPool.commonPool();
+	}
+
+	/**
+	 * Creates a growth engine that uses a given number of threads
+	 * @param S the generating set
+	 * @param threads the number of threads; with 1 thread, everything runs on the calling thread
+	 */
+	public GrowthEngine(ArrayList<TreePair> S, int threads) throws TreeNodeException
+	{
+		if (threads<1)
+		{
+			throw new TreeNodeException("Growth computation needs at least one thread, got "+threads);
+		}
+		freezeGenerators(S);
+		pool = (threads>1) ? new ForkJoinPool(threads) : null;
+	}
+
+	/**
+	 * Shuts down the pool this engine started, if any.
+	 * The common pool is left running.
+	 */
+	public void close()
+	{
+		if ((pool!=null) && (pool!=ForkJoinPool.commonPool()))
+		{
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Fills in the generators, copying and freezing those that are not immutable yet
+	 * @param S the generating set
+	 */
+	private void freezeGenerators(ArrayList<TreePair> S) throws TreeNodeException
+	{
+		for (TreePair g : S)
+		{
+			generators.add(g.isImmutable() ? g : g.duplicate().freeze());
+		}
+	}
+
+	/**
+	 * Computes the growth function \gamma(k) of the semigroup for k=1..n
+	 * @param n the value of the growth function to compute up to
+	 * @return
+	 * an array whose i'th value is the number of distinct (w.r.t. the group) words of length
+	 * at most i in alphabet with letters in the generating set
+	 * @throws TreeNodeException
+	 */
+	public int[] growth(int n) throws TreeNodeException
+	{
+		return grow(new GrowthCheckpoint(generators, n, false, false));
+	}
+
+	/**
+	 * Computes the growth function of the group for k=1..n, keeping only the last two spheres.
+	 * The generating set must be symmetric, i.e. contain the inverse of each generator.
+	 * <br>
+	 * While sphere k+1 is built, the words of sphere k (the frontier) are kept as tree pairs,
+	 * and sphere k-1 only as the set of its fingerprints; the ball itself is only counted.
+	 * @param n the value of the growth function to compute up to
+	 * @param fingerprintsOnly if true, sphere k is also kept as fingerprints only, and
+	 * matching fingerprints are trusted without comparing the block maps
+	 * @return the same values as {@link #growth(int)}
+	 * @throws TreeNodeException if the generating set is not symmetric
+	 */
+	public int[] sphereGrowth(int n, boolean fingerprintsOnly) throws TreeNodeException
+	{
+		checkSymmetric();
+		return grow(new GrowthCheckpoint(generators, n, true, fingerprintsOnly));
+	}
+
+	/**
+	 * Makes growth() and sphereGrowth() save their state to a file after every radius
+	 * @param file the checkpoint file, or null for no checkpoints
+	 */
+	public void setCheckpoint(File file)
+	{
+		checkpoint = file;
+	}
+
+	/**
+	 * Continues a growth computation from the state saved in a checkpoint file.
+	 * The generators and the kind of growth are read from the file; 
+	 * the computation keeps saving its state to the same file.
+	 * @param file the checkpoint file written by growth() or sphereGrowth()
+	 * @param n the value of the growth function to compute up to; 
+	 * if not positive, the value the computation was started with
+	 * @return the values of the growth function up to n
+	 */
+	public static int[] resume(File file, int n) throws TreeNodeException
+	{
+		GrowthCheckpoint state = GrowthCheckpoint.read(file);
+		if (n>0)
+		{
+			state.target = n;
+		}
+		GrowthEngine engine = new GrowthEngine(state.generators);
+		try
+		{
+			engine.setCheckpoint(file);
+			return engine.grow(state);
+		}
+		finally
+		{
+			engine.close();
+		}
+	}
+
+	/**
+	 * Runs a growth computation from a given state up to its target radius,
+	 * saving the state after every radius if a checkpoint file is set
+	 * @param state the state to start from; it is advanced in place
+	 * @return the values of the growth function up to the target radius
+	 */
+	private int[] grow(GrowthCheckpoint state) throws TreeNodeException
+	{
+		try
+		{
+			while (state.radius<state.target)
+			{
+				ArrayList<HashMap<Fingerprint, TreePair>> layers = new ArrayList<HashMap<Fingerprint, TreePair>>();
+				layers.add(state.previous);
+				layers.add(state.current);
+				ConcurrentHashMap<Fingerprint, TreePair> next = new ConcurrentHashMap<Fingerprint, TreePair>();
+				Expansion task = new Expansion(state.frontier, 0, state.frontier.size(), layers, next);
+				state.advance((pool==null) ? task.compute() : pool.invoke(task));
+				if (checkpoint!=null)
+				{
+					state.write(checkpoint);
+				}
+			}
+			return state.getCounts(state.target);
+		}
+		catch (Failure f)
+		{
+			throw new TreeNodeException("Error occurred during growth computation: \n" + f.error.errorString);
+		}
+		catch (TreeNodeException e)
+		{
+			throw new TreeNodeException("Error occurred during growth computation: \n" + e.errorString);
+		}
+	}
+	
+	/**
+	 * Computes the growth function of the group for k=1..n, keeping the spheres on disk.
+	 * The generating set must be symmetric, as for {@link #sphereGrowth(int, boolean)}.
+	 * <br>
+	 * Each sphere is a {@link RunFile} sorted by fingerprint. Sphere k is streamed from disk
+	 * in batches; the products of a batch with the generators are reduced in parallel and
+	 * collected into sorted runs of about runSize words. The runs are then merged,
+	 * leaving out duplicates and the words of spheres k-1 and k, into the file of sphere k+1;
+	 * if there are more than {@link RunFile#FAN_IN} runs, groups of them are merged first.
+	 * Only one batch and one run are held on the heap at a time.
+	 * @param n the value of the growth function to compute up to
+	 * @param dir the directory for the run files; they are deleted when done
+	 * @param runSize the number of words in a sorted run
+	 * @return the same values as {@link #growth(int)}
+	 * @throws TreeNodeException if the generating set is not symmetric, or on I/O errors
+	 */
+	public long[] diskGrowth(int n, File dir, int runSize) throws TreeNodeException
+	{
+		checkSymmetric();
+		if (runSize<1)
+		{
+			throw new TreeNodeException("The runs must hold at least one word, got "+runSize);
+		}
+		int batchSize = Math.max(1, runSize/Math.max(1, generators.size()));
+		RunFile previous = null;
+		RunFile current = null;
+		ArrayList<RunFile> runs = new ArrayList<RunFile>();
+		HashSet<File> files = new HashSet<File>(); //every file that is still on disk
+		try
+		{
+			long[] ans = new long[n+1];
+			ans[0] = 1;
+			ArrayList<RunFile.Record> products = new ArrayList<RunFile.Record>();
+			products.add(new RunFile.Record(new TreePair("0,0,1").reduce().freeze()));
+			current = RunFile.write(products, newRunFile(dir, files));
+			for (int i=1; i<=n; i++)
+			{
+				products.clear();
+				ArrayList<TreePair> batch = new ArrayList<TreePair>();
+				RunFile.Reader in = current.open();
+				try
+				{
+					while (in.current()!=null)
+					{
+						batch.clear();
+						while ((in.current()!=null) && (batch.size()<batchSize))
+						{
+							batch.add(in.current().getWord().freeze());
+							in.advance();
+						}
+						for (TreePair w : expand(batch))
+						{
+							products.add(new RunFile.Record(w));
+						}
+						if (products.size()>=runSize)
+						{
+							runs.add(RunFile.write(products, newRunFile(dir, files)));
+							products.clear();
+						}
+					}
+				}
+				finally
+				{
+					in.close();
+				}
+				if (!products.isEmpty())
+				{
+					runs.add(RunFile.write(products, newRunFile(dir, files)));
+					products.clear();
+				}
+				RunFile next = mergeRuns(runs, new RunFile[]{previous, current}, dir, files);
+				runs.clear();
+				if (previous!=null)
+				{
+					deleteRun(previous, files);
+				}
+				previous = current;
+				current = next;
+				ans[i] = ans[i-1] + next.size();
+			}
+			return ans;
+		}
+		catch (Failure f)
+		{
+			throw new TreeNodeException("Error occurred during growth computation: \n" + f.error.errorString);
+		}
+		finally
+		{
+			for (File f : files)
+			{
+				f.delete();
+			}
+		}
+	}
+
+	/**
+	 * Merges sorted runs into one sorted file, leaving out the known words, and deletes the runs.
+	 * At most {@link RunFile#FAN_IN} runs are open at a time: while there are more,
+	 * groups of them are merged into longer runs.
+	 * @param runs the runs to merge
+	 * @param known sorted files of words to leave out (may contain null)
+	 * @param dir the directory for the new files
+	 * @param files the files on disk; new files are added, deleted ones removed
+	 * @return the merged file
+	 */
+	private static RunFile mergeRuns(ArrayList<RunFile> runs, RunFile[] known, File dir, HashSet<File> files) throws TreeNodeException
+	{
+		while (runs.size()>RunFile.FAN_IN)
+		{
+			ArrayList<RunFile> merged = new ArrayList<RunFile>();
+			for (int i=0; i<runs.size(); i+=RunFile.FAN_IN)
+			{
+				List<RunFile> group = runs.subList(i, Math.min(runs.size(), i+RunFile.FAN_IN));
+				merged.add(RunFile.merge(group, NO_RUNS, newRunFile(dir, files)));
+				for (RunFile run : group)
+				{
+					deleteRun(run, files);
+				}
+			}
+			runs = merged;
+		}
+		RunFile ans = RunFile.merge(runs, known, newRunFile(dir, files));
+		for (RunFile run : runs)
+		{
+			deleteRun(run, files);
+		}
+		return ans;
+	}
+
+	/**
+	 * Deletes a run file and stops tracking it
+	 * @param run the run
+	 * @param files the files on disk
+	 */
+	private static void deleteRun(RunFile run, HashSet<File> files)
+	{
+		run.delete();
+		files.remove(run.getFile());
+	}
+
+	/**
+	 * Creates a new, empty run file. The file is added to the files on disk
+	 * before anything is written to it, so it is deleted even if writing fails.
+	 * @param dir the directory of the file
+	 * @param files the files on disk
+	 * @return the file
+	 */
+	private static File newRunFile(File dir, HashSet<File> files) throws TreeNodeException
+	{
+		try
+		{
+			File f = File.createTempFile("sphere", ".run", dir);
+			files.add(f);
+			return f;
+		}
+		catch (IOException e)
+		{
+			throw new TreeNodeException("Could not create a run file in "+dir+": "+e.getMessage());
+		}
+	}
+
+	/**
+	 * Multiplies some words by all generators
+	 * @param words reduced, frozen words
+	 * @return the distinct products, reduced and frozen
+	 */
+	private ArrayList<TreePair> expand(ArrayList<TreePair> words)
+	{
+		Expansion task = new Expansion(words, 0, words.size(), NO_LAYERS, new ConcurrentHashMap<Fingerprint, TreePair>());
+		return (pool==null) ? task.compute() : pool.invoke(task);
+	}
+
+	/**
+	 * Checks that the inverse of every generator is also a generator
+	 * @throws TreeNodeException if some inverse is missing
+	 */
+	private void checkSymmetric() throws TreeNodeException
+	{
+		HashMap<Fingerprint, TreePair> gens = new HashMap<Fingerprint, TreePair>();
+		for (TreePair g : generators)
+		{
+			TreePair r = g.reduce().freeze();
+			gens.put(r.fingerprint(), r);
+		}
+		for (TreePair g : generators)
+		{
+			TreePair inv = TreePair.inverseOf(g).reduce().freeze();
+			TreePair h = gens.get(inv.fingerprint());
+			if ((h==null) || !TreePair.sameCanonicalForm(inv, h))
+			{
+				throw new TreeNodeException("The generating set is not symmetric: the inverse of "+g+" is missing");
+			}
+		}
+	}
+
+	/**
+	 * Adds a reduced, frozen word to the set of known words
+	 * @param words the known words, keyed by fingerprint
+	 * @param w the word
+	 * @return true if the word was not known before
+	 */
+	static boolean addWord(ConcurrentHashMap<Fingerprint, TreePair> words, TreePair w) throws TreeNodeException
+	{
+		TreePair wOld = words.putIfAbsent(w.fingerprint(), w);
+		if (wOld == null)
+		{
+			return true;
+		}
+		if (!TreePair.sameCanonicalForm(w, wOld))
+		{
+			throw new TreeNodeException("Fingerprint collision between "+w+" and "+wOld);
+		}
+		return false;
+	}
+
+	/**
+	 * Carries a TreeNodeException out of a fork-join task
+	 */
+	private static class Failure extends RuntimeException
+	{
+		static final long serialVersionUID = 1;
+
+		/**
+		 * The exception thrown by the task
+		 */
+		final TreeNodeException error;
+
+		Failure(TreeNodeException error)
+		{
+			this.error = error;
+		}
+	}
+
+	/**
+	 * Tells whether a reduced, frozen word is in one of the given layers of known words.
+	 * A layer may keep only the fingerprints (mapped to null), which are then trusted.
+	 * @param layers the layers, which are only read
+	 * @param w the word
+	 * @return true if some layer contains the word
+	 */
+	static boolean isKnown(ArrayList<HashMap<Fingerprint, TreePair>> layers, TreePair w) throws TreeNodeException
+	{
+		Fingerprint f = w.fingerprint();
+		for (HashMap<Fingerprint, TreePair> layer : layers)
+		{
+			if (layer.containsKey(f))
+			{
+				TreePair wOld = layer.get(f);
+				if ((wOld!=null) && !TreePair.sameCanonicalForm(w, wOld))
+				{
+					throw new TreeNodeException("Fingerprint collision between "+w+" and "+wOld);
+				}
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Multiplies a range of the frontier by all generators.
+	 * Returns the words that were in none of the layers and new to the map of words.
+	 */
+	private class Expansion extends RecursiveTask<ArrayList<TreePair>>
+	{
+		static final long serialVersionUID = 1;
+
+		private final ArrayList<TreePair> frontier;
+		private final int lo;
+		private final int hi;
+		private final ArrayList<HashMap<Fingerprint, TreePair>> layers;
+		private final ConcurrentHashMap<Fingerprint, TreePair> words;
+
+		Expansion(ArrayList<TreePair> frontier, int lo, int hi, 
+				ArrayList<HashMap<Fingerprint, TreePair>> layers, ConcurrentHashMap<Fingerprint, TreePair> words)
+		{
+			this.frontier = frontier;
+			this.lo = lo;
+			this.hi = hi;
+			this.layers = layers;
+			this.words = words;
+		}
+
+		protected ArrayList<TreePair> compute()
+		{
+			if ((pool!=null) && (hi-lo>GRAIN))
+			{
+				int mid = (lo+hi)>>>1;
+				Expansion left = new Expansion(frontier, lo, mid, layers, words);
+				Expansion right = new Expansion(frontier, mid, hi, layers, words);
+				left.fork();
+				ArrayList<TreePair> ans = right.compute();
+				ans.addAll(left.join());
+				return ans;
+			}
+			ArrayList<TreePair> ans = new ArrayList<TreePair>();
+			try
+			{
+				for (int k=lo; k<hi; k++)
+				{
+					TreePair w = frontier.get(k);
+					for (TreePair g : generators)
+					{
+						TreePair wNew = TreePair.compose(w, g).reduce().freeze();
+						if (!isKnown(layers, wNew) && addWord(words, wNew))
+						{
+							ans.add(wNew);
+						}
+					}
+				}
+			}
+			catch (TreeNodeException e)
+			{
+				throw new Failure(e);
+			}
+			return ans;
+		}
+	}
+}
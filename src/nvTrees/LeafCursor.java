@@ -0,0 +1,125 @@
+package nvTrees;
+
+/**
+ * Walks over the leaves of a tree in DFS order (the order of detailedDFS()),
+ * without building a list of them.
+ * <br>
+ * The cursor moves along the parent references of the nodes and keeps one super path,
+ * which it changes in place from one leaf to the next. So walking a tree allocates nothing
+ * per leaf; a caller that needs to keep the path of a leaf should copy or intern it.
+ * <br>
+ * Typical use:
+ * <pre>
+ * LeafCursor C = tree.leafCursor();
+ * while (C.next())
+ * {
+ *     ... C.getNode(), C.getPath(), C.getIndex() ...
+ * }
+ * </pre>
+ * The tree must not be changed during the walk.
+ * @author Romwell
+ *
+ */
+public class LeafCursor {
+
+	/**
+	 * The root of the tree walked
+	 */
+	private final TreeNode root;
+
+	/**
+	 * The current leaf, null before the first leaf and after the last one
+	 */
+	private TreeNode node = null;
+
+	/**
+	 * The super path of the current leaf
+	 */
+	private final SuperPath path = new SuperPath();
+
+	/**
+	 * The DFS number of the current leaf
+	 */
+	private int index = -1;
+
+	/**
+	 * Set after the last leaf
+	 */
+	private boolean done = false;
+
+	/**
+	 * Creates a cursor before the first leaf of a tree
+	 * @param T the tree
+	 */
+	public LeafCursor(NvTree T)
+	{
+		root = T.rootNode;
+	}
+
+	/**
+	 * Moves to the next leaf
+	 * @return false if there are no more leaves
+	 */
+	public boolean next() throws TreeNodeException
+	{
+		if (done)
+		{
+			return false;
+		}
+		if (node==null)
+		{
+			node = root;
+		}
+		else
+		{
+			//go up past the right children, then over to the right sibling
+			TreeNode n = node;
+			while ((n!=root)&&!n.isLeftChild())
+			{
+				path.goUp(n.parent.color);
+				n = n.parent;
+			}
+			if (n==root)
+			{
+				node = null;
+				done = true;
+				return false;
+			}
+			path.goUp(n.parent.color);
+			path.appendDown(n.parent.color, false);
+			node = n.parent.right;
+		}
+		while (!node.isLeaf())
+		{
+			path.appendDown(node.color, true);
+			node = node.left;
+		}
+		index++;
+		return true;
+	}
+
+	/**
+	 * Returns the current leaf
+	 */
+	public TreeNode getNode()
+	{
+		return node;
+	}
+
+	/**
+	 * Returns the super path of the current leaf. The same instance is changed by next(),
+	 * so copy or intern it to keep it.
+	 */
+	public SuperPath getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Returns the DFS number of the current leaf, counting from 0
+	 */
+	public int getIndex()
+	{
+		return index;
+	}
+}
@@ -0,0 +1,142 @@
+package nvTrees;
+import java.util.ArrayList;
+
+/**
+ * Walks over the pairs of leaves of two trees whose blocks intersect,
+ * that is, over the blocks of the common refinement of the two patterns.
+ * <br>
+ * The trees are walked down together, keeping a pair of nodes whose blocks intersect.
+ * A node is split until it is a leaf, and only the children whose blocks still meet the other
+ * block are followed, so every pair of leaves reached gives a block of the refinement.
+ * The work is proportional to the size of the refinement times the depth of the trees.
+ * <br>
+ * Typical use:
+ * <pre>
+ * LeafPairCursor C = new LeafPairCursor(S, T);
+ * while (C.next())
+ * {
+ *     ... C.getFirstPath(), C.getSecondPath() ...
+ * }
+ * </pre>
+ * The pairs come in the DFS order of the refinement. The trees must not be changed during the walk.
+ * @author Romwell
+ *
+ */
+public class LeafPairCursor {
+
+	/**
+	 * A pair of nodes still to walk, with their super paths
+	 */
+	private static class Frame
+	{
+		final TreeNode first;
+		final SuperPath firstPath;
+		final TreeNode second;
+		final SuperPath secondPath;
+
+		Frame(TreeNode first, SuperPath firstPath, TreeNode second, SuperPath secondPath)
+		{
+			this.first = first;
+			this.firstPath = firstPath;
+			this.second = second;
+			this.secondPath = secondPath;
+		}
+	}
+
+	/**
+	 * The pairs of nodes still to walk; the top one is walked next
+	 */
+	private final ArrayList<Frame> stack = new ArrayList<Frame>();
+
+	/**
+	 * The current pair of leaves, null before the first pair and after the last one
+	 */
+	private Frame current = null;
+
+	/**
+	 * Creates a cursor before the first pair of leaves of two trees
+	 * @param S the first tree
+	 * @param T the second tree
+	 */
+	public LeafPairCursor(NvTree S, NvTree T)
+	{
+		stack.add(new Frame(S.rootNode, new SuperPath(), T.rootNode, new SuperPath()));
+	}
+
+	/**
+	 * Moves to the next pair of leaves whose blocks intersect
+	 * @return false if there are no more pairs
+	 */
+	public boolean next() throws TreeNodeException
+	{
+		while (!stack.isEmpty())
+		{
+			Frame f = stack.remove(stack.size()-1);
+			if (f.first.isLeaf() && f.second.isLeaf())
+			{
+				current = f;
+				return true;
+			}
+			boolean splitFirst = !f.first.isLeaf();
+			TreeNode node = splitFirst ? f.first : f.second;
+			SuperPath path = splitFirst ? f.firstPath : f.secondPath;
+			SuperPath other = splitFirst ? f.secondPath : f.firstPath;
+			int col = node.color;
+			int len = path.getColLength(col);
+			for (int bit=1; bit>=0; bit--)	//right child first, so the left one is walked first
+			{
+				if ((len<other.getColLength(col)) && (other.getBit(col, len)!=bit))
+				{
+					continue; //this half misses the other block
+				}
+				SuperPath childPath = new SuperPath(path);
+				childPath.appendDown(col, bit==0);
+				TreeNode child = (bit==0) ? node.left : node.right;
+				if (splitFirst)
+				{
+					stack.add(new Frame(child, childPath, f.second, f.secondPath));
+				}
+				else
+				{
+					stack.add(new Frame(f.first, f.firstPath, child, childPath));
+				}
+			}
+		}
+		current = null;
+		return false;
+	}
+
+	/**
+	 * Returns the current leaf of the first tree
+	 */
+	public TreeNode getFirstNode()
+	{
+		return current.first;
+	}
+
+	/**
+	 * Returns the super path of the current leaf of the first tree.
+	 * The path may be shared with later pairs, so copy it to change it.
+	 */
+	public SuperPath getFirstPath()
+	{
+		return current.firstPath;
+	}
+
+	/**
+	 * Returns the current leaf of the second tree
+	 */
+	public TreeNode getSecondNode()
+	{
+		return current.second;
+	}
+
+	/**
+	 * Returns the super path of the current leaf of the second tree.
+	 * The path may be shared with later pairs, so copy it to change it.
+	 */
+	public SuperPath getSecondPath()
+	{
+		return current.secondPath;
+	}
+}
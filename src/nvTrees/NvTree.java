@@ -1,8 +1,8 @@
 package nvTrees;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Random;
 import java.util.StringTokenizer;
 
@@ -75,57 +75,73 @@ public class NvTree {
 		}
 		
 		
-		String S = createTreeFromString(rootNode, structure);
-		if (S.length() > 0)
+		int end = createTreeFromString(rootNode, structure, 0);
+		if (end < structure.length())
 		{
-			throw new TreeNodeException("Leftover symbols left: "+S);
+			throw new TreeNodeException("Leftover symbols left: "+structure.substring(end));
 		}
+		TreeNode.updateSubtree(rootNode);
 	}	
 	
 	
+	/**
+	 * Constructs an nV tree with the given root node.
+	 * The nodes are not copied: the new tree uses them as they are,
+	 * and their subtree statistics are computed.
+	 * @param root the root node of the tree
+	 */
+	public NvTree(TreeNode root)
+	{
+		rootNode = root;
+		TreeNode.updateSubtree(rootNode);
+	}
+	
+	
 	/**
 	 * Creates a tree structure from the given root and string representation
 	 * of a tree
+	 * <br>
+	 * The string is read once from left to right; the right children still to be read are
+	 * kept on a stack rather than on the call stack, so very deep trees can be read too.
 	 * @param root the root node of the tree structure
 	 * @param structure String containing the tree structure
-	 * @return used internally to pass back the structure string as 
-	 * it is being processed
+	 * @param pos the position in the string where the description of the subtree starts
+	 * @return the position right after the description of the subtree
 	 */
-	private static String createTreeFromString(TreeNode root, String structure) throws TreeNodeException
+	private static int createTreeFromString(TreeNode root, String structure, int pos) throws TreeNodeException
 	{		
-		if (structure.length() > 0)
+		int n = structure.length();
+		ArrayList<TreeNode> pending = new ArrayList<TreeNode>();
+		TreeNode node = root;
+		while (true)
 		{
-			String color = "" + structure.charAt(0);
-			try
+			if (pos >= n) //if the structure string ended, then something went wrong
 			{
-				int col = Integer.valueOf(color).intValue();			
-				String S = structure.substring(1);
-				if (col == 0) //if the node is a leaf node...
-				{
-					root.color = 0;
-					return S; //eat the first symbol and return
-				}
-				else	//if the node is not a leaf node...
-				{
-					root.color = col;
-					TreeNode left = new TreeNode(root, col, true);
-					TreeNode right = new TreeNode(root, col, false);				
-					root.left = left;
-					root.right = right;
-					S = createTreeFromString(left,S);
-					S = createTreeFromString(right,S);
-					return S;
-				}
+				throw new TreeNodeException("Not enough symbols for a tree structure !");
 			}
-			catch(NumberFormatException e)
+			char color = structure.charAt(pos++);
+			if ((color<'0')||(color>'9'))
 			{
 				throw new TreeNodeException("You have entered an inavalid tree description: " +
-						"\n the following character is not a digit \n"+e.getMessage());
+						"\n the following character is not a digit \n"+color);
+			}
+			int col = color-'0';
+			node.color = col;
+			if (col != 0) //if the node is not a leaf node, read its left subtree first
+			{
+				node.left = new TreeNode(node, col, true);
+				node.right = new TreeNode(node, col, false);
+				pending.add(node.right);
+				node = node.left;
+			}
+			else if (pending.isEmpty()) //the last leaf
+			{
+				return pos;
+			}
+			else
+			{
+				node = pending.remove(pending.size()-1);
 			}
-		}
-		else //if the structure string is empty, then something went wrong
-		{
-			throw new TreeNodeException("Not enough symbols for a tree structure !");
 		}
 	}
 	
@@ -154,14 +170,40 @@ public class NvTree {
 	 */
 	public static String getStringAt(TreeNode root)
 	{
-		String S ="";
-		S += root.color;
-		if (!root.isLeaf()) 
+		StringBuilder S = new StringBuilder();
+		appendStringAt(root, S);
+		return S.toString();
+	}
+	
+	/**
+	 * Appends the string representation of a subtree to a string builder.
+	 * <br>
+	 * The subtree is walked along the parent references, so no stack is needed.
+	 * @param root The root node of the subtree
+	 * @param S the builder to append to
+	 */
+	private static void appendStringAt(TreeNode root, StringBuilder S)
+	{
+		TreeNode node = root;
+		while (true)
 		{
-			S+=getStringAt(root.left);		
-			S+=getStringAt(root.right);
+			S.append((char)('0'+node.color));
+			if (!node.isLeaf())
+			{
+				node = node.left;
+				continue;
+			}
+			//go up past the right children, then over to the right sibling
+			while ((node!=root)&&!node.isLeftChild())
+			{
+				node = node.parent;
+			}
+			if (node==root)
+			{
+				return;
+			}
+			node = node.parent.right;
 		}
-		return S;
 	}
 
 	/**
@@ -170,11 +212,12 @@ public class NvTree {
 	 * <li>result[0] = 1, always
 	 * <li>result[i] = maximum depth of color i, i.e. the largest amount
 	 * of times color i occurred on the path from the root to a leaf 
+	 * <br>The depths are kept in the nodes, so this takes constant time.
 	 * @return the array containing color depths for each color 
 	 */
 	public int[] getColorDepths()
 	{
-		return getColorDepthsAt(rootNode);
+		return rootNode.getColorDepths();
 	}
 	/**
 	 * Gets the color depths in the subtree at the root node in the parameter
@@ -183,18 +226,7 @@ public class NvTree {
 	 */
 	public static int [] getColorDepthsAt(TreeNode root)
 	{		
-		int[] depths = new int[MAXCOL];
-		depths[root.color]=1;
-		if (!root.isLeaf())
-		{
-			int[] left_depths = getColorDepthsAt(root.left);
-			int[] right_depths = getColorDepthsAt(root.right);
-			for (int i=0;i<depths.length;i++)
-			{
-				depths[i] +=Math.max(left_depths[i], right_depths[i]);
-			}
-		}
-		return depths;
+		return root.getColorDepths();
 	}
 	
 	/**
@@ -204,14 +236,10 @@ public class NvTree {
 	 */
 	public int maxColorDepth()
 	{
-		int[] depths = getColorDepths();
 		int max = 1;
-		for (int i=0;i<depths.length;i++)
+		for (int i=0;i<MAXCOL;i++)
 		{
-			if (depths[i]>max)
-			{
-				max = depths[i];
-			}
+			max = Math.max(max, rootNode.getColorDepth(i));
 		}
 		return max;
 	}
@@ -222,22 +250,12 @@ public class NvTree {
 	 */	
 	public int maxColorValue()
 	{
-		return maxColorValueAt(this.rootNode);
-	}
-	
-	/**
-	 * Returns the largest color label in a subtree
-	 * @param node the root of the subtree 
-	 * @return the largest color value that appears in this tree 
-	 */	
-	private int maxColorValueAt(TreeNode node)
-	{
-		if (!node.isLeaf())
+		for (int i=MAXCOL-1;i>0;i--)
 		{
-			int L = maxColorValueAt(node.left);
-			int R = maxColorValueAt(node.right);
-			int C = node.color;
-			return Math.max(Math.max(L,R), C);
+			if (rootNode.getColorDepth(i)>0)
+			{
+				return i;
+			}
 		}
 		return 0;
 	}
@@ -248,7 +266,7 @@ public class NvTree {
 	 */
 	public int getDepth()
 	{
-		return getDepthAt(rootNode);
+		return rootNode.getDepth();
 	}
 	
 	/**
@@ -258,23 +276,12 @@ public class NvTree {
 	 */
 	public static int getDepthAt(TreeNode root)
 	{
-		if (!root.isLeaf())
-		{
-			return 1+Math.max(getDepthAt(root.left), getDepthAt(root.right));
-		}
-		else
-		{
-			return 1;
-		}
+		return root.getDepth();
 	}
 	
-
-
-
-	
 	/**
 	 * Returns the array list that contains unique node labels
-	 * (stored in node.path field) of the LEAVES as they are being
+	 * (node paths, see {@link TreeNode#getPath()}) of the LEAVES as they are being
 	 * traversed Depth-First
 	 * @return DFS-ordered list of node path strings
 	 */
@@ -292,22 +299,35 @@ public class NvTree {
 	 * @param list the list to add node labels into
 	 */
 	public static void traverseDFSat (TreeNode root, ArrayList<String> list)
+	{
+		traverseDFSat(root, new StringBuilder(root.getPath()), list);
+	}
+	
+	/**
+	 * Traverses the subtree rooted at root depth-first, building the node paths as it goes
+	 * @param root the root of the subtree to be searched
+	 * @param path the path to root; restored on return
+	 * @param list the list to add node labels into
+	 */
+	private static void traverseDFSat (TreeNode root, StringBuilder path, ArrayList<String> list)
 	{
 		if (root.isLeaf())
 		{
-			list.add(root.path);
+			list.add(path.toString());
 		}
 		else
 		{
-			traverseDFSat(root.left, list);
-			traverseDFSat(root.right, list);
+			path.append('0');
+			traverseDFSat(root.left, path, list);
+			path.setCharAt(path.length()-1, '1');
+			traverseDFSat(root.right, path, list);
+			path.setLength(path.length()-1);
 		}
 	}
 	
 	/**
 	 * Returns a node by its path value; throws an exception if the tree does not contain such node.
-	 * @param path path to the node (also store in the node's path field; see {@link TreeNode} documentation
-	 * for details
+	 * @param path path to the node (see {@link TreeNode#getPath()} for details
 	 * @return the node whose path was specified
 	 */
 	public TreeNode nodeByPath(String path) throws TreeNodeException
@@ -376,10 +396,13 @@ public class NvTree {
 	public ArrayList<SuperPath>detailedDFS()
 	{
 		 ArrayList<SuperPath> ans = new ArrayList<SuperPath>();
-		 String[] cur_path = new String[MAXCOL];
 		 try
 		 {
-			 detailedDFSAt(this.rootNode, ans, cur_path);
+			 LeafCursor C = leafCursor();
+			 while (C.next())
+			 {
+				 ans.add(C.getPath().intern());
+			 }
 		 }
 		 catch (TreeNodeException e)
 		 {
@@ -388,6 +411,30 @@ public class NvTree {
 		 return ans;
 	}
 	
+	/**
+	 * Returns a cursor over the leaves of this tree, in the order of detailedDFS()
+	 * @return a cursor before the first leaf
+	 */
+	public LeafCursor leafCursor()
+	{
+		return new LeafCursor(this);
+	}
+	
+	/**
+	 * Returns the interned SuperPaths of the leaves in DFS order, as an array
+	 * @return the leaves, as detailedDFS() lists them
+	 */
+	SuperPath[] leafPaths() throws TreeNodeException
+	{
+		SuperPath[] ans = new SuperPath[rootNode.getNumLeaves()];
+		LeafCursor C = leafCursor();
+		while (C.next())
+		{
+			ans[C.getIndex()] = C.getPath().intern();
+		}
+		return ans;
+	}
+	
 	/**
 	 * Does a detailed DFS of the subtree at the root, and fills the ans array with Superpaths
 	 * @param root  the root of the subtree to search
@@ -412,7 +459,7 @@ public class NvTree {
 		
 		if (root.isLeaf())
 		{
-			SuperPath P = new SuperPath(cur_path);
+			SuperPath P = new SuperPath(cur_path).intern();
 			ans.add(P);
 		}
 		else
@@ -440,42 +487,107 @@ public class NvTree {
 	
 	/**
 	 * Returns the leaf given its SuperPath relative to the given root 
+	 * <br>
+	 * The path is not changed or copied: the walk down keeps, for each color,
+	 * the number of symbols of the path used so far.
 	 * @param root the root of the subtree to search
 	 * @param spath the Super Path to the node
 	 * @return SuperPath to the node
 	 */
 	public static TreeNode nodeBySuperPathAt(TreeNode root, SuperPath spath) throws TreeNodeException 
 	{
-		int col = root.color;
-		SuperPath cur_path = new SuperPath(spath);
-		if (!spath.isEmpty())
+		int[] offset = new int[MAXCOL];
+		int remaining = 0;
+		for (int i=1; i<MAXCOL; i++)
+		{
+			remaining += spath.getColLength(i);
+		}
+		TreeNode node = root;
+		while (remaining>0)
 		{
-			if (root.isLeaf())
+			int col = node.color;
+			if (node.isLeaf() || (offset[col]>=spath.getColLength(col)))
 			{
 				throw new TreeNodeException("No node with such path !");
 			}
-			else
+			int bit = spath.getBit(col, offset[col]);
+			offset[col]++;
+			remaining--;
+			node = (bit==0) ? node.left : node.right;
+		}
+		return node;
+	}
+	
+	/**
+	 * Finds the nodes of many SuperPaths in one walk down the tree.
+	 * <br>
+	 * The paths are sorted into the subtrees they go to as the walk goes down, so each node
+	 * is visited once, and each path is read once, however many paths there are.
+	 * @param paths the Super Paths to the nodes
+	 * @return nodes[i] is the node with the path paths[i]
+	 * @throws TreeNodeException if some path does not lead to a node
+	 */
+	public TreeNode[] nodesBySuperPaths(SuperPath[] paths) throws TreeNodeException
+	{
+		TreeNode[] ans = new TreeNode[paths.length];
+		int[] order = new int[paths.length];
+		for (int j=0; j<order.length; j++)
+		{
+			order[j] = j;
+		}
+		nodesBySuperPathsAt(rootNode, paths, order, 0, paths.length, new int[MAXCOL], ans);
+		return ans;
+	}
+	
+	/**
+	 * Finds the nodes of the paths paths[order[lo]], ..., paths[order[hi-1]] in the subtree at a node
+	 * @param root the root of the subtree
+	 * @param depth depth[i] = length in color i of the Super Path of root
+	 */
+	private static void nodesBySuperPathsAt(TreeNode root, SuperPath[] paths, int[] order, int lo, int hi, int[] depth, TreeNode[] ans) throws TreeNodeException
+	{
+		//the paths that end here go to the front
+		int mid = lo;
+		for (int j=lo; j<hi; j++)
+		{
+			SuperPath P = paths[order[j]];
+			boolean here = true;
+			for (int i=1; (i<MAXCOL)&&here; i++)
 			{
-				
-				char c = cur_path.getColPath(col).charAt(0);
-
-				cur_path.eatDown(col);
-				
-				if (c=='0')
-				{
-					return nodeBySuperPathAt(root.left,cur_path);
-				}
-				else
-				{
-					return nodeBySuperPathAt(root.right,cur_path);
-				}			
+				here = (P.getColLength(i)==depth[i]);
+			}
+			if (here)
+			{
+				ans[order[j]] = root;
+				int t = order[j]; order[j] = order[mid]; order[mid] = t;
+				mid++;
 			}
 		}
-		else
+		if (mid==hi)
 		{
-			return root;
+			return;
 		}
-		
+		int col = root.color;
+		int d = depth[col];
+		//the paths that go left go before the ones that go right
+		int split = mid;
+		for (int j=mid; j<hi; j++)
+		{
+			SuperPath P = paths[order[j]];
+			if (root.isLeaf() || (P.getColLength(col)<=d))
+			{
+				throw new TreeNodeException("No node with such path: "+P);
+			}
+			if (P.getBit(col, d)==0)
+			{
+				int t = order[j]; order[j] = order[split]; order[split] = t;
+				split++;
+			}
+		}
+		depth[col]++;
+		nodesBySuperPathsAt(root.left, paths, order, mid, split, depth, ans);
+		nodesBySuperPathsAt(root.right, paths, order, split, hi, depth, ans);
+		depth[col]--;
 	}
 	
 	/**
@@ -489,14 +601,41 @@ public class NvTree {
 		return nodeByPath(path).getSuperpath();
 	}
 		
-	//TODO: this is inefficient. Rewrite code to copy, not to construct/deconstruct a string!
 	/**
-	 * Provides a duplicate of this tree
+	 * Provides a duplicate of this tree.
+	 * <br>The nodes are copied directly, without going through the string form.
 	 * @return a deep copy of this NvTree
 	 */
 	public NvTree duplicate() throws TreeNodeException 
 	{		
-		return new NvTree(this.toString());
+		TreeNode root = new TreeNode(null, rootNode.color, true);
+		ArrayList<TreeNode> from = new ArrayList<TreeNode>();
+		ArrayList<TreeNode> to = new ArrayList<TreeNode>();
+		from.add(rootNode);
+		to.add(root);
+		while (!from.isEmpty())
+		{
+			TreeNode src = from.remove(from.size()-1);
+			TreeNode dst = to.remove(to.size()-1);
+			if (!src.isLeaf())
+			{
+				dst.left = new TreeNode(dst, src.left.color, true);
+				dst.right = new TreeNode(dst, src.right.color, false);
+				from.add(src.left);   to.add(dst.left);
+				from.add(src.right);  to.add(dst.right);
+			}
+		}
+		return new NvTree(root);
+	}
+	
+	/**
+	 * Returns the fingerprint of the pattern of this tree.
+	 * Trees with the same pattern have the same fingerprint, whatever their shape.
+	 * @return the fingerprint of detailedDFS()
+	 */
+	public Fingerprint fingerprint() throws TreeNodeException
+	{
+		return Fingerprint.of(leafCursor());
 	}
 	
 	/**
@@ -504,14 +643,27 @@ public class NvTree {
 	 * @param A a tree
 	 * @param B another tree
 	 * @return true if A and B represent the same pattern
+	 * <br>
+	 * The blocks are only compared one by one if the fingerprints match.
 	 */
 	public static boolean isEquiv(NvTree A, NvTree B) throws TreeNodeException
 	{
 		if ((A!=null)&&(B!=null))
 		{
-			ArrayList<SuperPath>P = A.detailedDFS();
-			ArrayList<SuperPath>Q = B.detailedDFS();
-			return (P.containsAll(Q)&&Q.containsAll(P));
+			if (!A.fingerprint().equals(B.fingerprint()))
+			{
+				return false;
+			}
+			HashSet<SuperPath> P = new HashSet<SuperPath>(A.detailedDFS());
+			LeafCursor C = B.leafCursor();
+			while (C.next())
+			{
+				if (!P.contains(C.getPath()))
+				{
+					return false;
+				}
+			}
+			return C.getIndex()+1==P.size();
 		}
 		else
 		{
@@ -525,83 +677,99 @@ public class NvTree {
 	 * Constructs an NvTree from a pattern (collection of superpaths,
 	 * as returened by detailedDFS()).
 	 * <br>
-	 * The algorithms is as follows:
-	 * <li>Create a list of SuperPaths for each color and sort it with a corresponding
-	 * comparator
-	 * <li>Search the first list for adjacent blocks and merge them. Update the other lists.
-	 * Since the lists were sorted with a nice comparator, blocks adjacent along color i
-	 * will be adjacent in list i.
-	 * <li>Whenever no merges are made, move to the next color
-	 * <li>Whenver a merge is made, reset (go to the beginning of the list for color 1)
+	 * The tree is built from the root down. The region of a node (the whole cube for the root)
+	 * can be cut in half along color c if every block inside it is cut along c at least once more,
+	 * i.e. no block spans the region in that color. Among such colors the highest is used, so 
+	 * the carets of lower colors end up closer to the leaves; the blocks are then split 
+	 * between the two halves. Any pattern can be built this way, and since the tree only 
+	 * depends on the set of blocks, it is the same for all trees with this pattern.
+	 * <br>
+	 * Each level of the tree takes time linear in the number of blocks below it,
+	 * so the whole construction takes O(n*d) for n blocks and a tree of depth d.
 	 * @param pattern a collection of superpaths that forms a tree
-	 * @return a tree that represents this pattern with all leaf-root paths being
-	 * alphabetically smallest ones.
+	 * @return a tree that represents this pattern 
+	 * @throws TreeNodeException if the blocks do not form a pattern
+	 * (they overlap, leave gaps or cannot be cut in halves)
 	 */
 	public static NvTree fromPattern(Collection<SuperPath> pattern) throws TreeNodeException	
 	{
-		 ArrayList<SuperPath> blocks= new ArrayList<SuperPath>(pattern);
-		/*
-		 * We shall store the partial tree here
-		 */
-		HashMap<SuperPath, TreeNode>nodes = new HashMap<SuperPath, TreeNode>();
-		for (SuperPath P:pattern)
+		SuperPath[] blocks = pattern.toArray(new SuperPath[pattern.size()]);
+		int n = blocks.length;
+		if (n==0)
 		{
-			TreeNode tn = new TreeNode(null,0,false);
-			nodes.put(P, tn);
+			throw new TreeNodeException("The pattern is empty");
 		}
+		TreeNode root = new TreeNode(null,0,false);
 		
-		int i=0;
-		int curcol = 1;		
-		boolean found = false;
-		Collections.sort(blocks, new SuperPathComparator(curcol));
-		while (blocks.size()>1)	//the goal is to merge all the blocks int ONE square 
-		{	 
-			SuperPath L = blocks.get(i);			
-			SuperPath R = blocks.get(i+1);
-			int c = L.isAdjacentTo(R);		//if L is adjacent to R, c is the color along which they're adjacent
-			if (c==curcol)
+		/*
+		 * Stack of the nodes still to build: the node, the range of blocks 
+		 * in its region, and the number of cuts of each color above it 
+		 */
+		TreeNode[] stackNode = new TreeNode[n];
+		int[] stackLo = new int[n];
+		int[] stackHi = new int[n];
+		int[][] stackCuts = new int[n][];
+		int top = 0;
+		stackNode[top] = root; stackLo[top] = 0; stackHi[top] = n; stackCuts[top] = new int[MAXCOL];
+		top++;
+		while (top>0)
+		{
+			top--;
+			TreeNode node = stackNode[top];
+			int lo = stackLo[top];
+			int hi = stackHi[top];
+			int[] cuts = stackCuts[top];
+			if (hi-lo==1)
 			{
-				found = true;				
-				TreeNode parent = new TreeNode(null,curcol,false);
-				TreeNode left = nodes.get(L);
-				TreeNode right = nodes.get(R);
-				parent.left = left;
-				parent.right = right;
-				nodes.remove(L);
-				nodes.remove(R);
-				SuperPath LRMerged = new SuperPath(L); 
-				LRMerged.goUp(c);
-				nodes.put(LRMerged, parent);				
-				blocks.remove(R);
-				blocks.remove(L);
-				blocks.add(LRMerged);							
-				Collections.sort(blocks, new SuperPathComparator(curcol));
-			}
-			if (i<blocks.size()-2){i++;} else 
-			{				
-				if (!found)
+				for (int c=1;c<MAXCOL;c++)
 				{
-					curcol++;
-					if (curcol>=MAXCOL){curcol=1;} 
-					Collections.sort(blocks, new SuperPathComparator(curcol));
+					if (blocks[lo].getColLength(c)>cuts[c])
+					{
+						throw new TreeNodeException("The blocks do not form a pattern: the block "+blocks[lo]+
+								" is the only one in the larger block "+node.getSuperpath());
+					}
 				}
-				else {curcol = 1;}
-				found = false;
-				i=0;
+				continue;	//a leaf
+			}
+			int col = 0;
+			for (int c=MAXCOL-1;(c>0)&&(col==0);c--)
+			{
+				int i = lo;
+				while ((i<hi)&&(blocks[i].getColLength(c)>cuts[c])) {i++;}
+				if (i==hi) {col = c;}
+			}
+			if (col==0)
+			{
+				throw new TreeNodeException("The blocks do not form a pattern: the block "+node.getSuperpath()+
+						" cannot be cut in half without cutting one of the "+(hi-lo)+" blocks in it");
 			}
 			
+			//split the blocks between the two halves
+			int mid = lo;
+			for (int i=lo;i<hi;i++)
+			{
+				if (blocks[i].getBit(col, cuts[col])==0)
+				{
+					SuperPath tmp = blocks[i]; blocks[i] = blocks[mid]; blocks[mid] = tmp;
+					mid++;
+				}
+			}
+			node.color = col;
+			node.left = new TreeNode(node,0,true);
+			node.right = new TreeNode(node,0,false);
+			if ((mid==lo)||(mid==hi))
+			{
+				TreeNode empty = (mid==lo) ? node.left : node.right;
+				throw new TreeNodeException("The blocks do not form a pattern: nothing covers the block "+empty.getSuperpath());
+			}
+			int[] below = cuts.clone();
+			below[col]++;
+			stackNode[top] = node.right; stackLo[top] = mid; stackHi[top] = hi; stackCuts[top] = below;
+			top++;
+			stackNode[top] = node.left; stackLo[top] = lo; stackHi[top] = mid; stackCuts[top] = below;
+			top++;
 		}
-			SuperPath top = blocks.get(0);		
-			TreeNode root = nodes.get(top);
-			return new NvTree(getStringAt(root));
-			/**
-			 * TODO FIXME
-			 * There is no check or error handling of whether the list of blocks actually forms 
-			 * a pattern. If it doesn't, the algorithm simply loops forever - no good.
-			 * <br>
-			 * The code is unoptimal. Instead of re-sorting one list,
-			 * one could maintain several sorted lists.
-			 */
+		return new NvTree(root);
 	}
 	
 	
@@ -0,0 +1,344 @@
+package nvTrees;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Looks at the dynamics of an element of nV (or of F, T, V) to find its order.
+ * <br>
+ * Starting with the pair of the element, the left pattern P is refined to the common refinement of
+ * P and g^-1(P), over and over. Along the way:
+ * <ul>
+ * <li>if the left and right patterns become the same, g permutes the blocks of P. Each cycle of blocks
+ * returns every block onto itself by the identity, so the order of g is the lcm of the cycle lengths,
+ * and the cycles are the periodic orbits;
+ * <li>if some block B is mapped by a power g^k strictly into itself, B is an attracting block, and if
+ * g^k(B) strictly contains B, B is a repelling block. The images g^(jk)(B) then keep shrinking (growing),
+ * so g has infinite order.
+ * </ul>
+ * The refinements get finer around the repelling points of g, and the right patterns around the 
+ * attracting ones, so for elements of V one of the two shows up after a few rounds (this has held
+ * for all elements we tried). In nV (n>1) the torsion problem is undecidable in general, so if the 
+ * pattern grows past a given number of blocks, the order is reported as unknown.
+ * <br>
+ * Following the orbits takes time quadratic in the number of blocks in each round, so the
+ * default budget is kept to a small multiple of the size of the element.
+ * @author Romwell
+ *
+ */
+public class PairDynamics {
+
+	/**
+	 * Order of an element of infinite order
+	 */
+	public static final long INFINITE = -1;
+
+	/**
+	 * Order of an element the analysis gave up on
+	 */
+	public static final long UNKNOWN = -2;
+
+	/**
+	 * By default, the patterns may grow to this many times the number of blocks
+	 * of the element before the analysis gives up
+	 */
+	public static final int DEFAULT_GROWTH = 8;
+
+	/**
+	 * The order of the element: positive if finite, INFINITE or UNKNOWN otherwise
+	 */
+	private long order = UNKNOWN;
+
+	/**
+	 * The last pair computed: the element, with its left pattern refined as described above
+	 */
+	private TreePair pair;
+
+	/**
+	 * The cycles of blocks, if the element has finite order
+	 */
+	private final ArrayList<ArrayList<SuperPath>> periodicOrbits = new ArrayList<ArrayList<SuperPath>>();
+
+	/**
+	 * Blocks B with g^k(B) strictly inside B, and the powers k
+	 */
+	private final ArrayList<SuperPath> attracting = new ArrayList<SuperPath>();
+	private final ArrayList<Integer> attractingPeriods = new ArrayList<Integer>();
+
+	/**
+	 * Blocks B with g^k(B) strictly containing B, and the powers k
+	 */
+	private final ArrayList<SuperPath> repelling = new ArrayList<SuperPath>();
+	private final ArrayList<Integer> repellingPeriods = new ArrayList<Integer>();
+
+	/**
+	 * Analyzes an element, giving up once the patterns have DEFAULT_GROWTH times
+	 * as many blocks as the element
+	 * @param A the element
+	 */
+	public PairDynamics(TreePair A) throws TreeNodeException
+	{
+		this(A, DEFAULT_GROWTH*A.numBlocks());
+	}
+
+	/**
+	 * Analyzes an element
+	 * @param A the element
+	 * @param maxBlocks the number of blocks the refined patterns may grow to before giving up
+	 */
+	public PairDynamics(TreePair A, int maxBlocks) throws TreeNodeException
+	{
+		TreePair G = A.duplicate();
+		G.removeExposedCarets();
+		G.freeze();
+		while (true)
+		{
+			pair = G;
+			if (NvTree.isEquiv(G.left_tree, G.right_tree))
+			{
+				findCycles(G);
+				return;
+			}
+			if (findNestedOrbits(G))
+			{
+				order = INFINITE;
+				return;
+			}
+			if (G.numBlocks() > maxBlocks)
+			{
+				return;
+			}
+			//refine the left pattern P to P and g^-1(P): refine g^-1 to P on its left, and invert back
+			TreePair H = TreePair.refineLeftTreeTo(TreePair.inverseOf(G), G.left_tree);
+			G = TreePair.inverseOf(H).freeze();
+		}
+	}
+
+	/**
+	 * Tells whether this element has finite order
+	 */
+	public boolean isTorsion()
+	{
+		return order>0;
+	}
+
+	/**
+	 * Returns the order of the element: positive if finite, INFINITE or UNKNOWN otherwise
+	 */
+	public long getOrder()
+	{
+		return order;
+	}
+
+	/**
+	 * Returns the last pair computed. For an element of finite order, this pair has the same
+	 * pattern on both sides, and the permutation of the leaves shows the periodic orbits.
+	 */
+	public TreePair getPair()
+	{
+		return pair;
+	}
+
+	/**
+	 * Returns the cycles of blocks, if the element has finite order
+	 */
+	public ArrayList<ArrayList<SuperPath>> getPeriodicOrbits()
+	{
+		return periodicOrbits;
+	}
+
+	/**
+	 * Returns the attracting blocks found: blocks B with g^k(B) strictly inside B
+	 */
+	public ArrayList<SuperPath> getAttractingBlocks()
+	{
+		return attracting;
+	}
+
+	/**
+	 * Returns the repelling blocks found: blocks B with g^k(B) strictly containing B
+	 */
+	public ArrayList<SuperPath> getRepellingBlocks()
+	{
+		return repelling;
+	}
+
+	/**
+	 * Finds the cycles of the permutation of blocks of a pair with the same pattern on both sides,
+	 * and sets the order to the lcm of their lengths
+	 */
+	private void findCycles(TreePair G) throws TreeNodeException
+	{
+		HashMap<SuperPath, SuperPath> map = G.getPermutation().permutationMap;
+		HashSet<SuperPath> seen = new HashSet<SuperPath>();
+		order = 1;
+		LeafCursor leaves = G.left_tree.leafCursor();
+		while (leaves.next())
+		{
+			if (seen.contains(leaves.getPath()))
+			{
+				continue;
+			}
+			ArrayList<SuperPath> cycle = new ArrayList<SuperPath>();
+			for (SuperPath C = leaves.getPath().intern(); !seen.contains(C); C = map.get(C))
+			{
+				seen.add(C);
+				cycle.add(C);
+			}
+			periodicOrbits.add(cycle);
+			order = lcm(order, cycle.size());
+		}
+	}
+
+	/**
+	 * Follows the orbits of the blocks of both patterns of G, under g and under g^-1,
+	 * looking for a block that some power maps strictly into or onto more than itself.
+	 * @return true if such a block was found
+	 */
+	private boolean findNestedOrbits(TreePair G) throws TreeNodeException
+	{
+		TreePair Ginv = TreePair.inverseOf(G);
+		int maxSteps = G.numBlocks();
+		HashSet<SuperPath> starts = new HashSet<SuperPath>(G.left_tree.detailedDFS());
+		starts.addAll(G.right_tree.detailedDFS());
+		for (SuperPath B : starts)
+		{
+			followOrbit(G, B, maxSteps, attracting, attractingPeriods, repelling, repellingPeriods);
+			//an attracting block of g^-1 is a repelling block of g, and vice versa
+			followOrbit(Ginv, B, maxSteps, repelling, repellingPeriods, attracting, attractingPeriods);
+		}
+		return !attracting.isEmpty() || !repelling.isEmpty();
+	}
+
+	/**
+	 * Follows the orbit of a block under the map of a pair for as long as each image
+	 * lies in one block of the left pattern, and records the first time it is nested in the block
+	 */
+	private static void followOrbit(TreePair G, SuperPath B, int maxSteps,
+			ArrayList<SuperPath> into, ArrayList<Integer> intoPeriods,
+			ArrayList<SuperPath> onto, ArrayList<Integer> ontoPeriods) throws TreeNodeException
+	{
+		SuperPath C = B;
+		for (int k=1; k<=maxSteps; k++)
+		{
+			C = imageOf(G, C);
+			if (C==null)
+			{
+				return;
+			}
+			boolean inside = contains(B, C);
+			boolean outside = contains(C, B);
+			if (inside && outside)
+			{
+				return;	//a periodic block
+			}
+			if (inside)
+			{
+				if (!into.contains(B)) {into.add(B); intoPeriods.add(k);}
+				return;
+			}
+			if (outside)
+			{
+				if (!onto.contains(B)) {onto.add(B); ontoPeriods.add(k);}
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Returns the image of a block under the map of a pair
+	 * @param G a tree pair
+	 * @param B a block
+	 * @return the image of B, or null if B does not lie in one block of the left pattern
+	 */
+	static SuperPath imageOf(TreePair G, SuperPath B) throws TreeNodeException
+	{
+		TreeNode node = G.left_tree.rootNode;
+		SuperPath leaf = new SuperPath();
+		while (!node.isLeaf())
+		{
+			int col = node.color;
+			int len = leaf.getColLength(col);
+			if (len >= B.getColLength(col))
+			{
+				return null;
+			}
+			boolean goLeft = (B.getBit(col, len)==0);
+			leaf.appendDown(col, goLeft);
+			node = goLeft ? node.left : node.right;
+		}
+		SuperPath image = new SuperPath(G.getPermutation().get(leaf));
+		for (int i=1; i<NvTree.MAXCOL; i++)
+		{
+			for (int j=leaf.getColLength(i); j<B.getColLength(i); j++)
+			{
+				image.appendDown(i, B.getBit(i, j)==0);
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * Tells whether block Q lies inside block P
+	 */
+	static boolean contains(SuperPath P, SuperPath Q)
+	{
+		for (int i=1; i<NvTree.MAXCOL; i++)
+		{
+			if (P.getColLength(i) > Q.getColLength(i))
+			{
+				return false;
+			}
+		}
+		return SuperPath.areIntersecting(P, Q);
+	}
+
+	/**
+	 * Returns the least common multiple of a and b
+	 */
+	private static long lcm(long a, long b)
+	{
+		long x = a, y = b;
+		while (y!=0)
+		{
+			long t = x % y;
+			x = y;
+			y = t;
+		}
+		return a / x * b;
+	}
+
+	/**
+	 * Returns a summary of the analysis
+	 */
+	public String toString()
+	{
+		StringBuilder ans = new StringBuilder();
+		if (order>0)
+		{
+			ans.append("order: ").append(order);
+			ans.append("\nperiodic orbits:");
+			for (ArrayList<SuperPath> cycle : periodicOrbits)
+			{
+				ans.append("\n  ").append(cycle);
+			}
+		}
+		else if (order==INFINITE)
+		{
+			ans.append("order: infinite");
+			for (int i=0; i<attracting.size(); i++)
+			{
+				ans.append("\n  attracting block ").append(attracting.get(i)).append(", period ").append(attractingPeriods.get(i));
+			}
+			for (int i=0; i<repelling.size(); i++)
+			{
+				ans.append("\n  repelling block ").append(repelling.get(i)).append(", period ").append(repellingPeriods.get(i));
+			}
+		}
+		else
+		{
+			ans.append("order: unknown (gave up at ").append(pair.numBlocks()).append(" blocks)");
+		}
+		return ans.toString();
+	}
+}
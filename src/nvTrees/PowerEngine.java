@@ -0,0 +1,189 @@
+package nvTrees;
+import java.util.ArrayList;
+
+/**
+ * Raises a tree pair to integer powers by repeated squaring.
+ * <br>
+ * The squares A, A^2, A^4, ... are computed once and kept, so A^n takes about
+ * 2 log n compositions instead of n, and further powers of the same element reuse them.
+ * Every product is reduced by compose(), which removes the exposed carets.
+ * <br>
+ * Before a large power is computed, the engine looks for the order of A;
+ * if A^k is the identity, the powers of A repeat with period k, and A^n is computed as A^(n mod k).
+ * The order is found from the dynamics of A (see {@link PairDynamics}); only if that gives up,
+ * A, A^2, ... are tried, and no more of them than the squaring of A^n takes compositions.
+ * <br>
+ * The engine of an immutable pair is kept with the pair (see {@link TreePair#power(TreePair, int)}),
+ * so it may be used from several threads; its methods are synchronized.
+ * @author Romwell
+ *
+ */
+public class PowerEngine {
+
+	/**
+	 * Powers larger than this are only computed after looking for the order of the element
+	 * (see {@link #lookForOrder(long)})
+	 */
+	static final int PERIOD_CHECK = 64;
+
+	/**
+	 * The element, frozen
+	 */
+	private final TreePair base;
+
+	/**
+	 * squares.get(j) is base^(2^j)
+	 */
+	private final ArrayList<TreePair> squares = new ArrayList<TreePair>();
+
+	/**
+	 * The order of the element, 0 if not known, -1 if it is known to be larger than orderChecked
+	 */
+	private int order = 0;
+
+	/**
+	 * The powers up to which the order was looked for;
+	 * Integer.MAX_VALUE if the element is known to have infinite order
+	 */
+	private int orderChecked = 0;
+
+	/**
+	 * Set to true once the order was looked for with {@link PairDynamics}
+	 */
+	private boolean dynamicsChecked = false;
+
+	/**
+	 * The engine of the inverse element, for negative powers
+	 */
+	private PowerEngine inverse = null;
+
+	/**
+	 * Creates a power engine for an element
+	 * @param A a tree pair; it is copied if it is not immutable
+	 */
+	public PowerEngine(TreePair A) throws TreeNodeException
+	{
+		base = A.isImmutable() ? A : A.duplicate().freeze();
+		squares.add(base);
+	}
+
+	/**
+	 * Computes a power of the element
+	 * @param n the exponent; may be negative or zero
+	 * @return A^n
+	 */
+	public TreePair power(long n) throws TreeNodeException
+	{
+		if (n<0)
+		{
+			return inverseEngine().power(-n);  //not under this engine's lock, or A^-n and (A^-1)^-n could deadlock
+		}
+		return nonNegativePower(n);
+	}
+
+	/**
+	 * Returns the engine of the inverse element, making it if needed
+	 */
+	private synchronized PowerEngine inverseEngine() throws TreeNodeException
+	{
+		if (inverse==null)
+		{
+			inverse = TreePair.powerEngine(TreePair.inverseOf(base));
+		}
+		return inverse;
+	}
+
+	/**
+	 * Computes a power of the element for a non-negative exponent
+	 */
+	private synchronized TreePair nonNegativePower(long n) throws TreeNodeException
+	{
+		if (n>PERIOD_CHECK)
+		{
+			lookForOrder(n);
+		}
+		if (order>0)
+		{
+			n = n % order;
+		}
+		TreePair ans = new TreePair("0,0,1").freeze();
+		for (int j=0; n>0; j++, n>>=1)
+		{
+			if ((n & 1)!=0)
+			{
+				ans = TreePair.compose(ans, square(j));
+			}
+		}
+		return ans;
+	}
+
+	/**
+	 * Returns A^(2^j), computing the squares up to it if needed
+	 */
+	private TreePair square(int j) throws TreeNodeException
+	{
+		while (squares.size()<=j)
+		{
+			TreePair last = squares.get(squares.size()-1);
+			squares.add(TreePair.compose(last, last).freeze());
+		}
+		return squares.get(j);
+	}
+
+	/**
+	 * Looks for the order of the element before A^n is computed.
+	 * The dynamics of A are tried first; if they give up, the powers of A are tried
+	 * up to the number of bits of n, which is about what the squaring would cost anyway.
+	 * @param n the exponent about to be used
+	 */
+	private void lookForOrder(long n) throws TreeNodeException
+	{
+		if (!dynamicsChecked)
+		{
+			dynamicsChecked = true;
+			long d = new PairDynamics(base).getOrder();
+			if (d==PairDynamics.INFINITE)
+			{
+				order = -1;
+				orderChecked = Integer.MAX_VALUE;
+			}
+			else if ((d>0) && (d<=Integer.MAX_VALUE))
+			{
+				order = (int) d;
+			}
+		}
+		findOrder(Math.min(PERIOD_CHECK, 64-Long.numberOfLeadingZeros(n)));
+	}
+
+	/**
+	 * Looks for the order of the element by computing A, A^2, ..., A^maxorder
+	 * and stopping at the first identity
+	 * @param maxorder maximum order to go to
+	 * @return n such that A^n =1 or -1 if such n is greater than maxorder.
+	 */
+	public synchronized int findOrder(int maxorder) throws TreeNodeException
+	{
+		if (maxorder<=0)
+		{
+			throw new TreeNodeException("You specified an invalid Maximum Order: "+maxorder);
+		}
+		if ((order>0) || (maxorder<=orderChecked))
+		{
+			return ((order>0) && (order<=maxorder)) ? order : -1;
+		}
+		TreePair ans = new TreePair("0,0,1");
+		for (int i=0; i<maxorder; i++)
+		{
+			ans = TreePair.compose(ans, base);
+			if (ans.isIdentity())
+			{
+				order = i+1;
+				orderChecked = maxorder;
+				return order;
+			}
+		}
+		order = -1;
+		orderChecked = maxorder;
+		return -1;
+	}
+}
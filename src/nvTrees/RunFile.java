@@ -0,0 +1,383 @@
+package nvTrees;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * A file of words (tree pairs in canonical form) sorted by their fingerprints.
+ * <br>
+ * Each record holds the two halves of the fingerprint and the string form of the
+ * word, so the word can be read back with new TreePair(String). Run files are written
+ * from sorted batches and merged into larger sorted files, as in an external merge sort;
+ * this lets growth computations keep spheres on disk instead of on the heap
+ * (see {@link GrowthEngine#diskGrowth(int, File, int)}).
+ * @author Romwell
+ *
+ */
+public class RunFile {
+
+	/**
+	 * Size of the I/O buffers, in bytes
+	 */
+	private static final int BUFFER = 1<<16;
+
+	/**
+	 * The largest number of runs that should be merged at once. Each open run holds
+	 * a file and a buffer, so more runs than this are merged in several passes
+	 * (see {@link GrowthEngine#diskGrowth(int, File, int)}).
+	 */
+	static final int FAN_IN = 64;
+
+	/**
+	 * A word together with its fingerprint
+	 */
+	public static class Record implements Comparable<Record>
+	{
+		final long hi;
+		final long lo;
+		final String word;
+
+		/**
+		 * Makes a record of a reduced word
+		 * @param w a tree pair in canonical form
+		 */
+		public Record(TreePair w) throws TreeNodeException
+		{
+			Fingerprint f = w.fingerprint();
+			this.hi = f.getHigh();
+			this.lo = f.getLow();
+			this.word = w.toString();
+		}
+
+		private Record(long hi, long lo, String word)
+		{
+			this.hi = hi;
+			this.lo = lo;
+			this.word = word;
+		}
+
+		/**
+		 * Records are ordered by their fingerprints
+		 */
+		public int compareTo(Record r)
+		{
+			int c = Long.compare(hi, r.hi);
+			return (c!=0) ? c : Long.compare(lo, r.lo);
+		}
+
+		/**
+		 * Returns the word of this record
+		 * @return a new tree pair
+		 */
+		public TreePair getWord() throws TreeNodeException
+		{
+			return new TreePair(word);
+		}
+	}
+
+	/**
+	 * The file on disk
+	 */
+	private final File file;
+
+	/**
+	 * The number of records in the file
+	 */
+	private final long size;
+
+	private RunFile(File file, long size)
+	{
+		this.file = file;
+		this.size = size;
+	}
+
+	/**
+	 * Returns the number of records in this file
+	 */
+	public long size()
+	{
+		return size;
+	}
+
+	/**
+	 * Returns the file on disk
+	 */
+	File getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Deletes the file from the disk
+	 */
+	public void delete()
+	{
+		file.delete();
+	}
+
+	/**
+	 * Sorts a batch of records, drops the duplicates and writes the rest to a file
+	 * @param records the records; they are sorted in place
+	 * @param file the file to write
+	 * @return the run file
+	 * @throws TreeNodeException if two different words have the same fingerprint, or on I/O errors
+	 */
+	public static RunFile write(ArrayList<Record> records, File file) throws TreeNodeException
+	{
+		Collections.sort(records);
+		Writer out = new Writer(file);
+		try
+		{
+			for (Record r : records)
+			{
+				out.add(r);
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+		return new RunFile(file, out.count);
+	}
+
+	/**
+	 * Merges sorted runs into one sorted file, dropping duplicates and
+	 * every word that occurs in one of the known files.
+	 * All the runs are open at once, so there should be at most {@link #FAN_IN} of them.
+	 * @param runs the runs to merge
+	 * @param known sorted files of words to leave out (may contain null)
+	 * @param file the file to write
+	 * @return the merged file
+	 * @throws TreeNodeException if two different words have the same fingerprint, or on I/O errors
+	 */
+	public static RunFile merge(List<RunFile> runs, RunFile[] known, File file) throws TreeNodeException
+	{
+		PriorityQueue<Reader> queue = new PriorityQueue<Reader>();
+		ArrayList<Reader> knownReaders = new ArrayList<Reader>();
+		Writer out = new Writer(file);
+		try
+		{
+			for (RunFile run : runs)
+			{
+				Reader in = run.open();
+				if (in.current!=null) {queue.add(in);} else {in.close();}
+			}
+			for (RunFile k : known)
+			{
+				if (k!=null) {knownReaders.add(k.open());}
+			}
+			while (!queue.isEmpty())
+			{
+				Reader in = queue.poll();
+				Record r = in.current;
+				if (!isIn(knownReaders, r))
+				{
+					out.add(r);
+				}
+				if (in.advance()!=null) {queue.add(in);} else {in.close();}
+			}
+		}
+		finally
+		{
+			out.close();
+			for (Reader in : queue) {in.close();}
+			for (Reader in : knownReaders) {in.close();}
+		}
+		return new RunFile(file, out.count);
+	}
+
+	/**
+	 * Tells whether a record occurs in one of the known files.
+	 * The records must be asked for in increasing order, since the readers only move forward.
+	 */
+	private static boolean isIn(ArrayList<Reader> known, Record r) throws TreeNodeException
+	{
+		for (Reader in : known)
+		{
+			while ((in.current!=null) && (in.current.compareTo(r)<0))
+			{
+				in.advance();
+			}
+			if ((in.current!=null) && (in.current.compareTo(r)==0))
+			{
+				checkSameWord(in.current, r);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Throws if two records with the same fingerprint hold different words
+	 */
+	private static void checkSameWord(Record a, Record b) throws TreeNodeException
+	{
+		if (!a.word.equals(b.word))
+		{
+			throw new TreeNodeException("Fingerprint collision between "+a.word+" and "+b.word);
+		}
+	}
+
+	/**
+	 * Opens this file for reading
+	 * @return a reader positioned at the first record
+	 */
+	public Reader open() throws TreeNodeException
+	{
+		return new Reader(file);
+	}
+
+	/**
+	 * Reads the records of a file one by one
+	 */
+	public static class Reader implements Comparable<Reader>
+	{
+		private final DataInputStream in;
+
+		/**
+		 * The record the reader is at; null at the end of the file
+		 */
+		private Record current;
+
+		private Reader(File file) throws TreeNodeException
+		{
+			try
+			{
+				FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(ch), BUFFER));
+			}
+			catch (IOException e)
+			{
+				throw new TreeNodeException("Could not open "+file+": "+e.getMessage());
+			}
+			advance();
+		}
+
+		/**
+		 * Returns the record the reader is at, or null at the end of the file
+		 */
+		public Record current()
+		{
+			return current;
+		}
+
+		/**
+		 * Moves to the next record
+		 * @return the next record, or null at the end of the file
+		 */
+		public Record advance() throws TreeNodeException
+		{
+			try
+			{
+				long hi = in.readLong();
+				long lo = in.readLong();
+				byte[] w = new byte[in.readInt()];
+				in.readFully(w);
+				current = new Record(hi, lo, new String(w, StandardCharsets.ISO_8859_1));
+			}
+			catch (EOFException e)
+			{
+				current = null;
+			}
+			catch (IOException e)
+			{
+				throw new TreeNodeException("Could not read a run file: "+e.getMessage());
+			}
+			return current;
+		}
+
+		/**
+		 * Readers are ordered by their current records
+		 */
+		public int compareTo(Reader r)
+		{
+			return current.compareTo(r.current);
+		}
+
+		/**
+		 * Closes the file
+		 */
+		public void close()
+		{
+			try
+			{
+				in.close();
+			}
+			catch (IOException e)
+			{
+				//nothing left to read anyway
+			}
+		}
+	}
+
+	/**
+	 * Writes sorted records to a file, dropping duplicates
+	 */
+	private static class Writer
+	{
+		private final DataOutputStream out;
+		private Record last = null;
+		private long count = 0;
+
+		Writer(File file) throws TreeNodeException
+		{
+			try
+			{
+				FileChannel ch = FileChannel.open(file.toPath(), StandardOpenOption.WRITE,
+						StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+				out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(ch), BUFFER));
+			}
+			catch (IOException e)
+			{
+				throw new TreeNodeException("Could not create "+file+": "+e.getMessage());
+			}
+		}
+
+		void add(Record r) throws TreeNodeException
+		{
+			if ((last!=null) && (last.compareTo(r)==0))
+			{
+				checkSameWord(last, r);
+				return;
+			}
+			try
+			{
+				byte[] w = r.word.getBytes(StandardCharsets.ISO_8859_1);
+				out.writeLong(r.hi);
+				out.writeLong(r.lo);
+				out.writeInt(w.length);
+				out.write(w);
+			}
+			catch (IOException e)
+			{
+				throw new TreeNodeException("Could not write a run file: "+e.getMessage());
+			}
+			last = r;
+			count++;
+		}
+
+		void close() throws TreeNodeException
+		{
+			try
+			{
+				out.close();
+			}
+			catch (IOException e)
+			{
+				throw new TreeNodeException("Could not write a run file: "+e.getMessage());
+			}
+		}
+	}
+}
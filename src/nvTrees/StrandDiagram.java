@@ -0,0 +1,904 @@
+package nvTrees;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The closed strand diagram of an element of V (and so of F and T), after Belk and Matucci,
+ * "Conjugacy and dynamics in Thompson's groups".
+ * <br>
+ * The strand diagram of a tree pair has a split for every caret of the left tree, a merge for every caret
+ * of the right tree, and strands that join the leaves as the permutation says. Closing the diagram joins
+ * the bottom of the right tree to the top of the left tree, and the strands that go through that place
+ * are said to cross the cut. A split followed by a merge along both of its strands, crossing the cut
+ * equally often, and a merge followed by a split can be taken out; once no more can be, the diagram
+ * is reduced. Two elements of V are conjugate exactly when their reduced diagrams are isomorphic, and
+ * the numbers of times the strands cross the cut agree up to moving the cut across vertices.
+ * <br>
+ * The diagram is kept as a pair of forests with the same number k of roots: the element acts on
+ * k copies of the Cantor set, the leaves of the domain forest are joined to the leaves of the range
+ * forest, and every root of the range forest is joined, across the cut, to the root of the domain forest
+ * with the same index. Reductions across the cut are done by conjugating with maps that split a copy
+ * in two halves or put two copies together. The product of these maps is kept as the conjugator of the
+ * diagram (a forest with k roots and a tree), so that the conjugating element can be given at the end.
+ * @author Romwell
+ *
+ */
+public class StrandDiagram {
+
+	/**
+	 * Types of vertices. The edges at a vertex are numbered 0, 1, 2:
+	 * a split has its incoming strand 0 and its outgoing strands 1 (left) and 2 (right);
+	 * a merge has its incoming strands 0 (left) and 1 (right) and its outgoing strand 2.
+	 */
+	static final int SPLIT = 0;
+	static final int MERGE = 1;
+
+	/**
+	 * A caret or a leaf of one of the forests
+	 */
+	static class Node
+	{
+		Node left = null;
+		Node right = null;
+		Node parent = null;
+
+		/**
+		 * For a leaf, the leaf of the other forest it is joined to
+		 */
+		Node match = null;
+
+		/**
+		 * For a root, its index in its forest; -1 otherwise
+		 */
+		int root = -1;
+
+		/**
+		 * For a caret, the vertex of the diagram it stands for
+		 */
+		int vertex = -1;
+
+		/**
+		 * For a leaf, its number while a tree pair is written out
+		 */
+		int index = 0;
+
+		boolean isLeaf()
+		{
+			return left==null;
+		}
+
+		boolean isLeftChild()
+		{
+			return (parent!=null) && (parent.left==this);
+		}
+	}
+
+	/**
+	 * The vertices and edges of the diagram, as numbered by numberVertices()
+	 */
+	static class Graph
+	{
+		/**
+		 * The carets of the diagram, by vertex number
+		 */
+		Node[] nodes;
+
+		/**
+		 * SPLIT or MERGE, by vertex
+		 */
+		int[] type;
+
+		/**
+		 * next[3v+s] is 3u+t if edge s of vertex v is edge t of vertex u
+		 */
+		int[] next;
+
+		/**
+		 * weight[3v+s] is the number of times edge s of vertex v crosses the cut
+		 */
+		int[] weight;
+
+		/**
+		 * For outgoing edges, the roots at which the edge crosses the cut, in order
+		 */
+		int[][] cuts;
+
+		/**
+		 * The free loops (closed strands without vertices), as the roots they cross, in order
+		 */
+		ArrayList<int[]> loops = new ArrayList<int[]>();
+
+		/**
+		 * Tells whether edge s of a vertex of the given type is outgoing
+		 */
+		static boolean isOut(int type, int s)
+		{
+			return (type==SPLIT) ? (s>0) : (s==2);
+		}
+	}
+
+	/**
+	 * The color of the carets
+	 */
+	private final int color;
+
+	/**
+	 * The roots of the domain forest and of the range forest
+	 */
+	private final ArrayList<Node> domain = new ArrayList<Node>();
+	private final ArrayList<Node> range = new ArrayList<Node>();
+
+	/**
+	 * The conjugator: a map from the copies of the Cantor set to the Cantor set,
+	 * given by a forest with a root for every copy and a tree
+	 */
+	private final ArrayList<Node> conjugatorDomain = new ArrayList<Node>();
+	private Node conjugatorRange;
+
+	/**
+	 * Makes the closed strand diagram of an element. The diagram is not reduced.
+	 * @param A an element of F, T or V: a tree pair with carets of one color
+	 * @throws TreeNodeException if A has carets of several colors
+	 */
+	public StrandDiagram(TreePair A) throws TreeNodeException
+	{
+		if (TreePair.isMultiDimensional(A))
+		{
+			throw new TreeNodeException("Strand diagrams are only made for elements of F, T and V (one color)");
+		}
+		color = A.left_tree.rootNode.isLeaf() ? 1 : A.left_tree.rootNode.color;
+		HashMap<SuperPath, Node> domainLeaves = new HashMap<SuperPath, Node>();
+		HashMap<SuperPath, Node> rangeLeaves = new HashMap<SuperPath, Node>();
+		setRoot(domain, 0, copyOf(A.left_tree, domainLeaves));
+		setRoot(range, 0, copyOf(A.right_tree, rangeLeaves));
+		for (Map.Entry<SuperPath, Node> e : domainLeaves.entrySet())
+		{
+			link(e.getValue(), rangeLeaves.get(A.getPermutation().get(e.getKey())));
+		}
+		Node c = new Node();
+		conjugatorRange = new Node();
+		link(c, conjugatorRange);
+		setRoot(conjugatorDomain, 0, c);
+	}
+
+	/**
+	 * Returns the color of the carets
+	 */
+	public int getColor()
+	{
+		return color;
+	}
+
+	/**
+	 * Returns the number of roots of the forests
+	 */
+	public int size()
+	{
+		return domain.size();
+	}
+
+	/**
+	 * Copies a tree into a new forest node, and collects its leaves by their paths
+	 */
+	private static Node copyOf(NvTree T, HashMap<SuperPath, Node> leaves) throws TreeNodeException
+	{
+		Node top = new Node();
+		ArrayList<TreeNode> stack = new ArrayList<TreeNode>();
+		ArrayList<Node> copies = new ArrayList<Node>();
+		ArrayList<SuperPath> paths = new ArrayList<SuperPath>();
+		stack.add(T.rootNode);
+		copies.add(top);
+		paths.add(new SuperPath());
+		while (!stack.isEmpty())
+		{
+			int last = stack.size()-1;
+			TreeNode N = stack.remove(last);
+			Node x = copies.remove(last);
+			SuperPath P = paths.remove(last);
+			if (N.isLeaf())
+			{
+				leaves.put(P, x);
+				continue;
+			}
+			x.left = child(x);
+			x.right = child(x);
+			SuperPath L = new SuperPath(P);
+			L.appendDown(N.color, true);
+			SuperPath R = new SuperPath(P);
+			R.appendDown(N.color, false);
+			stack.add(N.left);
+			copies.add(x.left);
+			paths.add(L);
+			stack.add(N.right);
+			copies.add(x.right);
+			paths.add(R);
+		}
+		return top;
+	}
+
+	/**
+	 * Returns a new leaf below a node
+	 */
+	private static Node child(Node x)
+	{
+		Node y = new Node();
+		y.parent = x;
+		return y;
+	}
+
+	/**
+	 * Joins two leaves
+	 */
+	private static void link(Node a, Node b)
+	{
+		a.match = b;
+		b.match = a;
+	}
+
+	/**
+	 * Makes a leaf into a caret with two new leaves
+	 */
+	private static void expand(Node x)
+	{
+		x.left = child(x);
+		x.right = child(x);
+		x.match = null;
+	}
+
+	/**
+	 * Makes a new caret over two roots
+	 */
+	private static Node caret(Node a, Node b)
+	{
+		Node x = new Node();
+		x.left = a;
+		x.right = b;
+		a.parent = x;
+		b.parent = x;
+		a.root = -1;
+		b.root = -1;
+		return x;
+	}
+
+	/**
+	 * Puts a node at index j of a list of roots (j may be the size of the list)
+	 */
+	private static void setRoot(ArrayList<Node> roots, int j, Node x)
+	{
+		x.parent = null;
+		x.root = j;
+		if (j==roots.size())
+		{
+			roots.add(x);
+		}
+		else
+		{
+			roots.set(j, x);
+		}
+	}
+
+	/**
+	 * Takes out the root at index k, moving the last root in its place
+	 */
+	private static void removeRoot(ArrayList<Node> roots, int k)
+	{
+		Node last = roots.remove(roots.size()-1);
+		if (k<roots.size())
+		{
+			roots.set(k, last);
+			last.root = k;
+		}
+	}
+
+	/**
+	 * Conjugates by the map that sends copy j to the left half of copy j and the new copy k
+	 * (the last one) to its right half. Leaves are split as needed, so that both forests have
+	 * a caret at root j; the carets then become two roots each.
+	 */
+	private void split(int j)
+	{
+		int k = size();
+		Node D = domain.get(j);
+		Node R = range.get(j);
+		Node d0, d1, r0, r1;
+		if (D.isLeaf() && (D.match==R))
+		{
+			//copy j is fixed; so are its halves
+			d0 = new Node();
+			d1 = new Node();
+			r0 = new Node();
+			r1 = new Node();
+			link(d0, r0);
+			link(d1, r1);
+		}
+		else
+		{
+			if (D.isLeaf())
+			{
+				Node rho = D.match;
+				expand(rho);
+				d0 = new Node();
+				d1 = new Node();
+				link(d0, rho.left);
+				link(d1, rho.right);
+			}
+			else
+			{
+				d0 = D.left;
+				d1 = D.right;
+				D.left = D.right = null;
+			}
+			if (R.isLeaf())
+			{
+				Node delta = R.match;
+				expand(delta);
+				r0 = new Node();
+				r1 = new Node();
+				link(delta.left, r0);
+				link(delta.right, r1);
+			}
+			else
+			{
+				r0 = R.left;
+				r1 = R.right;
+				R.left = R.right = null;
+			}
+		}
+		setRoot(domain, j, d0);
+		setRoot(domain, k, d1);
+		setRoot(range, j, r0);
+		setRoot(range, k, r1);
+
+		Node c = conjugatorDomain.get(j);
+		Node c0, c1;
+		if (c.isLeaf())
+		{
+			Node b = c.match;
+			expand(b);
+			c0 = new Node();
+			c1 = new Node();
+			link(c0, b.left);
+			link(c1, b.right);
+		}
+		else
+		{
+			c0 = c.left;
+			c1 = c.right;
+		}
+		setRoot(conjugatorDomain, j, c0);
+		setRoot(conjugatorDomain, k, c1);
+	}
+
+	/**
+	 * Conjugates by the map that puts copies j and k together, as the left and right half
+	 * of the new copy j; the last copy takes the place of copy k.
+	 * @return the new carets at root j of the domain and the range forest
+	 */
+	private Node[] merge(int j, int k)
+	{
+		Node d = caret(domain.get(j), domain.get(k));
+		Node r = caret(range.get(j), range.get(k));
+		Node c = caret(conjugatorDomain.get(j), conjugatorDomain.get(k));
+		setRoot(domain, j, d);
+		setRoot(range, j, r);
+		setRoot(conjugatorDomain, j, c);
+		removeRoot(domain, k);
+		removeRoot(range, k);
+		removeRoot(conjugatorDomain, k);
+		return new Node[] {d, r};
+	}
+
+	/**
+	 * Conjugates by a permutation of the copies
+	 * @param perm the new copy i is the old copy perm[i]
+	 */
+	void permute(int[] perm)
+	{
+		ArrayList<Node> D = new ArrayList<Node>(domain);
+		ArrayList<Node> R = new ArrayList<Node>(range);
+		ArrayList<Node> C = new ArrayList<Node>(conjugatorDomain);
+		for (int i=0; i<perm.length; i++)
+		{
+			setRoot(domain, i, D.get(perm[i]));
+			setRoot(range, i, R.get(perm[i]));
+			setRoot(conjugatorDomain, i, C.get(perm[i]));
+		}
+	}
+
+	/**
+	 * Takes out a split whose two strands go straight into the two incoming strands of a merge
+	 * (an exposed caret)
+	 * @return false if s is not such a split
+	 */
+	private static boolean collapse(Node s)
+	{
+		if (s.isLeaf() || !s.left.isLeaf() || !s.right.isLeaf())
+		{
+			return false;
+		}
+		Node m = s.left.match.parent;
+		if ((m==null) || (m.left!=s.left.match) || (m.right!=s.right.match))
+		{
+			return false;
+		}
+		s.left = s.right = null;
+		m.left = m.right = null;
+		link(s, m);
+		return true;
+	}
+
+	/**
+	 * Follows a strand from a leaf of the range forest across the cut, as long as it meets
+	 * roots with no caret in the domain forest
+	 * @param rho a leaf of the range forest
+	 * @param cuts the roots crossed are added to this list
+	 * @return the caret of the domain forest the strand goes into, or the leaf of the range forest
+	 * below the merge it goes into
+	 */
+	private Node follow(Node rho, ArrayList<Integer> cuts)
+	{
+		while (rho.parent==null)
+		{
+			cuts.add(rho.root);
+			Node x = domain.get(rho.root);
+			if (!x.isLeaf())
+			{
+				return x;
+			}
+			rho = x.match;
+		}
+		return rho;
+	}
+
+	/**
+	 * Returns all the carets of a forest
+	 */
+	private static ArrayList<Node> caretsOf(ArrayList<Node> roots)
+	{
+		ArrayList<Node> carets = new ArrayList<Node>();
+		ArrayList<Node> stack = new ArrayList<Node>(roots);
+		while (!stack.isEmpty())
+		{
+			Node x = stack.remove(stack.size()-1);
+			if (!x.isLeaf())
+			{
+				carets.add(x);
+				stack.add(x.left);
+				stack.add(x.right);
+			}
+		}
+		return carets;
+	}
+
+	/**
+	 * Reduces the diagram: takes out all splits followed by merges and merges followed by splits,
+	 * and keeps one free loop of each length.
+	 */
+	public void reduce()
+	{
+		boolean changed = true;
+		while (changed)
+		{
+			changed = collapseAll();
+			for (int j=0; j<size(); j++)
+			{
+				if (mergeMeetsSplit(j))
+				{
+					split(j);
+					changed = true;
+				}
+			}
+			for (Node s : caretsOf(domain))
+			{
+				if (splitMeetsMerge(s))
+				{
+					changed = true;
+				}
+			}
+		}
+		mergeLoops();
+	}
+
+	/**
+	 * Takes out all exposed carets
+	 * @return true if some were taken out
+	 */
+	private boolean collapseAll()
+	{
+		boolean changed = false;
+		ArrayList<Node> carets = caretsOf(domain);
+		//children come after their parents, so the list is worked from the end
+		while (!carets.isEmpty())
+		{
+			Node s = carets.remove(carets.size()-1);
+			if (collapse(s))
+			{
+				changed = true;
+				if (s.parent!=null)
+				{
+					carets.add(s.parent);
+				}
+			}
+		}
+		return changed;
+	}
+
+	/**
+	 * Tells whether the strand out of root j of the range forest, which must be a merge,
+	 * goes straight into a split (possibly after crossing the cut several times)
+	 */
+	private boolean mergeMeetsSplit(int j)
+	{
+		if (range.get(j).isLeaf())
+		{
+			return false;
+		}
+		Node x = domain.get(j);
+		if (!x.isLeaf())
+		{
+			return true;
+		}
+		return !follow(x.match, new ArrayList<Integer>()).isLeaf();
+	}
+
+	/**
+	 * If both strands out of a split cross the cut the same number of times and then go into
+	 * the two incoming strands of a merge, moves the split across the cut once, closer to the merge
+	 * @return true if the split was moved
+	 */
+	private boolean splitMeetsMerge(Node s)
+	{
+		if (s.isLeaf() || !s.left.isLeaf() || !s.right.isLeaf())
+		{
+			return false;
+		}
+		Node a = s.left.match;
+		Node b = s.right.match;
+		if ((a.parent!=null) || (b.parent!=null))
+		{
+			return false;
+		}
+		ArrayList<Integer> cutsA = new ArrayList<Integer>();
+		ArrayList<Integer> cutsB = new ArrayList<Integer>();
+		Node endA = follow(a, cutsA);
+		Node endB = follow(b, cutsB);
+		if (!endA.isLeaf() || !endB.isLeaf() || (endA.parent!=endB.parent) || !endA.isLeftChild()
+				|| (cutsA.size()!=cutsB.size()))
+		{
+			return false;
+		}
+		merge(a.root, b.root);
+		collapse(s);
+		return true;
+	}
+
+	/**
+	 * Puts together the free loops of the same length: conjugating a loop of length n and a copy of it
+	 * into one loop amounts to splitting a periodic orbit of blocks into two.
+	 */
+	private void mergeLoops()
+	{
+		HashMap<Integer, Node[]> first = new HashMap<Integer, Node[]>();
+		ArrayList<Node[]> loops = new ArrayList<Node[]>();
+		for (int[] loop : loops(new boolean[size()]))
+		{
+			Node[] leaves = new Node[loop.length];
+			for (int i=0; i<loop.length; i++)
+			{
+				leaves[i] = domain.get(loop[i]);
+			}
+			loops.add(leaves);
+		}
+		for (Node[] leaves : loops)
+		{
+			Node[] other = first.get(leaves.length);
+			if (other==null)
+			{
+				first.put(leaves.length, leaves);
+				continue;
+			}
+			for (int i=0; i<leaves.length; i++)
+			{
+				other[i] = merge(other[i].root, leaves[i].root)[0];
+			}
+			for (Node s : other)
+			{
+				collapse(s);
+			}
+		}
+	}
+
+	/**
+	 * Finds the free loops: roots with no carets on either side, joined in a cycle
+	 * @param seen marks the roots that are known not to be on a loop; it is filled in
+	 * @return the loops, as lists of roots in the order the strand crosses them
+	 */
+	private ArrayList<int[]> loops(boolean[] seen)
+	{
+		ArrayList<int[]> loops = new ArrayList<int[]>();
+		for (int j=0; j<size(); j++)
+		{
+			if (seen[j])
+			{
+				continue;
+			}
+			ArrayList<Integer> cycle = new ArrayList<Integer>();
+			int c = j;
+			boolean closed = false;
+			while (!seen[c] && domain.get(c).isLeaf() && range.get(c).isLeaf())
+			{
+				seen[c] = true;
+				cycle.add(c);
+				Node rho = domain.get(c).match;
+				if (rho.parent!=null)
+				{
+					break;
+				}
+				c = rho.root;
+				closed = (c==j);
+			}
+			if (closed)
+			{
+				int[] loop = new int[cycle.size()];
+				for (int i=0; i<loop.length; i++)
+				{
+					loop[i] = cycle.get(i);
+				}
+				loops.add(loop);
+			}
+		}
+		return loops;
+	}
+
+	/**
+	 * Numbers the carets of the diagram: splits and merges are the vertices of the diagram
+	 * @return the number of vertices
+	 */
+	int numberVertices()
+	{
+		int n = 0;
+		for (Node x : caretsOf(domain))
+		{
+			x.vertex = n++;
+		}
+		for (Node x : caretsOf(range))
+		{
+			x.vertex = n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the graph of the diagram, with the vertices numbered by numberVertices()
+	 * (the numbers are kept by the moves of the cut)
+	 */
+	Graph graph()
+	{
+		ArrayList<Node> splits = caretsOf(domain);
+		ArrayList<Node> merges = caretsOf(range);
+		int n = splits.size()+merges.size();
+		Graph G = new Graph();
+		G.nodes = new Node[n];
+		G.type = new int[n];
+		G.next = new int[3*n];
+		G.weight = new int[3*n];
+		G.cuts = new int[3*n][];
+		boolean[] crossed = new boolean[size()];
+		for (Node x : splits)
+		{
+			G.nodes[x.vertex] = x;
+			G.type[x.vertex] = SPLIT;
+		}
+		for (Node x : merges)
+		{
+			G.nodes[x.vertex] = x;
+			G.type[x.vertex] = MERGE;
+		}
+		for (Node x : splits)
+		{
+			for (int s=1; s<=2; s++)
+			{
+				Node y = (s==1) ? x.left : x.right;
+				ArrayList<Integer> cuts = new ArrayList<Integer>();
+				Node end = y.isLeaf() ? follow(y.match, cuts) : y;
+				addEdge(G, 3*x.vertex+s, end, !end.isLeaf(), cuts, crossed);
+			}
+		}
+		for (Node x : merges)
+		{
+			ArrayList<Integer> cuts = new ArrayList<Integer>();
+			if (x.parent!=null)
+			{
+				addEdge(G, 3*x.vertex+2, x, false, cuts, crossed);
+				continue;
+			}
+			cuts.add(x.root);
+			Node y = domain.get(x.root);
+			Node end = y.isLeaf() ? follow(y.match, cuts) : y;
+			addEdge(G, 3*x.vertex+2, end, !end.isLeaf(), cuts, crossed);
+		}
+		G.loops = loops(crossed);
+		return G;
+	}
+
+	/**
+	 * Adds an edge to the graph
+	 * @param from the outgoing edge it starts at
+	 * @param end the split it goes into, or the node of the range forest below the merge it goes into
+	 * @param intoSplit true if the edge goes into a split
+	 * @param cuts the roots at which the edge crosses the cut
+	 * @param crossed marks the roots crossed by edges
+	 */
+	private static void addEdge(Graph G, int from, Node end, boolean intoSplit, ArrayList<Integer> cuts, boolean[] crossed)
+	{
+		int to = intoSplit ? 3*end.vertex : 3*end.parent.vertex + (end.isLeftChild() ? 0 : 1);
+		G.next[from] = to;
+		G.next[to] = from;
+		G.weight[from] = cuts.size();
+		G.weight[to] = cuts.size();
+		G.cuts[from] = new int[cuts.size()];
+		for (int i=0; i<cuts.size(); i++)
+		{
+			G.cuts[from][i] = cuts.get(i);
+			crossed[cuts.get(i)] = true;
+		}
+	}
+
+	/**
+	 * Tells whether the cut can be moved forward across a vertex, off its incoming strands
+	 * and onto its outgoing ones: every incoming strand must cross the cut right before the vertex
+	 * @param x the caret of the vertex
+	 * @param type SPLIT or MERGE
+	 */
+	boolean canMoveForward(Node x, int type)
+	{
+		if (type==SPLIT)
+		{
+			return x.parent==null;
+		}
+		return x.left.isLeaf() && x.right.isLeaf() && (x.left.match.parent==null) && (x.right.match.parent==null);
+	}
+
+	/**
+	 * Moves the cut forward across a vertex (see canMoveForward())
+	 * @return the caret that stands for the vertex afterwards
+	 */
+	Node moveForward(Node x, int type) throws TreeNodeException
+	{
+		if (type==SPLIT)
+		{
+			Node R = range.get(x.root);
+			if (!R.isLeaf())
+			{
+				throw new TreeNodeException("The strand diagram is not reduced");
+			}
+			Node delta = R.match;
+			split(x.root);
+			delta.vertex = x.vertex;
+			return delta;
+		}
+		Node[] carets = merge(x.left.match.root, x.right.match.root);
+		collapse(carets[0]);
+		carets[1].vertex = x.vertex;
+		return carets[1];
+	}
+
+	/**
+	 * Tells whether the cut can be moved back across a vertex, off its outgoing strands
+	 * and onto its incoming ones: every outgoing strand must cross the cut right after the vertex
+	 * @param x the caret of the vertex
+	 * @param type SPLIT or MERGE
+	 */
+	boolean canMoveBackward(Node x, int type)
+	{
+		if (type==MERGE)
+		{
+			return x.parent==null;
+		}
+		return x.left.isLeaf() && x.right.isLeaf() && (x.left.match.parent==null) && (x.right.match.parent==null);
+	}
+
+	/**
+	 * Moves the cut back across a vertex (see canMoveBackward())
+	 * @return the caret that stands for the vertex afterwards
+	 */
+	Node moveBackward(Node x, int type) throws TreeNodeException
+	{
+		if (type==MERGE)
+		{
+			Node D = domain.get(x.root);
+			if (!D.isLeaf())
+			{
+				throw new TreeNodeException("The strand diagram is not reduced");
+			}
+			Node rho = D.match;
+			split(x.root);
+			rho.vertex = x.vertex;
+			return rho;
+		}
+		Node d = merge(x.left.match.root, x.right.match.root)[0];
+		collapse(x);
+		d.vertex = x.vertex;
+		return d;
+	}
+
+	/**
+	 * Returns the element given by the diagram cut at its roots, with the copies of the Cantor set
+	 * at the leaves of a right comb. If the diagram was made from g and C is its conjugator,
+	 * this is C^-1 g C (as functions).
+	 */
+	public TreePair toTreePair() throws TreeNodeException
+	{
+		return pairOf(domain, range);
+	}
+
+	/**
+	 * Returns the conjugator C of the diagram, taking the copies of the Cantor set
+	 * to the leaves of a right comb (see toTreePair())
+	 */
+	public TreePair getConjugator() throws TreeNodeException
+	{
+		ArrayList<Node> top = new ArrayList<Node>();
+		top.add(conjugatorRange);
+		return pairOf(conjugatorDomain, top);
+	}
+
+	/**
+	 * Writes two forests with joined leaves as a tree pair, putting each forest on a right comb
+	 */
+	private TreePair pairOf(ArrayList<Node> left, ArrayList<Node> right) throws TreeNodeException
+	{
+		StringBuilder L = new StringBuilder();
+		StringBuilder R = new StringBuilder();
+		ArrayList<Node> leftLeaves = new ArrayList<Node>();
+		ArrayList<Node> rightLeaves = new ArrayList<Node>();
+		writeComb(left, L, leftLeaves);
+		writeComb(right, R, rightLeaves);
+		for (int i=0; i<leftLeaves.size(); i++)
+		{
+			leftLeaves.get(i).index = i+1;
+		}
+		StringBuilder perm = new StringBuilder();
+		for (Node x : rightLeaves)
+		{
+			if (perm.length()>0)
+			{
+				perm.append(' ');
+			}
+			perm.append(x.match.index);
+		}
+		return new TreePair(L.toString(), R.toString(), perm.toString());
+	}
+
+	/**
+	 * Writes a forest on a right comb in the string format of trees, and lists its leaves
+	 */
+	private void writeComb(ArrayList<Node> roots, StringBuilder S, ArrayList<Node> leaves)
+	{
+		for (int i=0; i<roots.size(); i++)
+		{
+			if (i<roots.size()-1)
+			{
+				S.append(color);
+			}
+			ArrayList<Node> stack = new ArrayList<Node>();
+			stack.add(roots.get(i));
+			while (!stack.isEmpty())
+			{
+				Node x = stack.remove(stack.size()-1);
+				if (x.isLeaf())
+				{
+					S.append('0');
+					leaves.add(x);
+				}
+				else
+				{
+					S.append(color);
+					stack.add(x.right);
+					stack.add(x.left);
+				}
+			}
+		}
+	}
+}
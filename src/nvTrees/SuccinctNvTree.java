@@ -0,0 +1,576 @@
+package nvTrees;
+import java.util.ArrayList;
+
+/**
+ * A compact, array-backed form of an nV tree, meant for large trees.
+ * <br>
+ * Nodes are numbered 0..n-1 in preorder (the order of the tree string),
+ * and a node is referred to by its number. The tree is stored in two bit arrays:
+ * <li>the node colors, one 4-bit nibble per node (0 for leaves);
+ * <li>the shape of the tree as balanced parentheses: an open parenthesis (bit 1)
+ * when a node is entered and a close parenthesis (bit 0) when it is left.
+ * <br>
+ * A small directory with the number of open parentheses before each word
+ * gives rank and select, and the smallest excess inside each word lets
+ * findClose skip whole words. This takes about one byte per node, against
+ * several hundred for a linked {@link NvTree}, and all traversals are
+ * linear scans of the arrays.
+ * <br>
+ * Use {@link #SuccinctNvTree(NvTree)} and {@link #toNvTree()} to convert
+ * from and to the linked form.
+ * @author Romwell
+ *
+ */
+public class SuccinctNvTree {
+
+	/**
+	 * Number of bits in a word
+	 */
+	private static final int WORD = 64;
+
+	/**
+	 * Number of color nibbles in a word
+	 */
+	private static final int NIBBLES = 16;
+
+	/**
+	 * Number of nodes in the tree
+	 */
+	private int size;
+
+	/**
+	 * Node colors in preorder: color of node p is nibble p
+	 */
+	private long[] colors;
+
+	/**
+	 * Balanced parentheses of the tree shape (2*size bits), 1 = open
+	 */
+	private long[] shape;
+
+	/**
+	 * rankDir[w] = number of open parentheses in the words before w
+	 */
+	private int[] rankDir;
+
+	/**
+	 * minExcess[w] = smallest excess (opens minus closes) of a nonempty prefix of word w
+	 */
+	private byte[] minExcess;
+
+	/**
+	 * Constructs a tree from its string representation
+	 * (the same format as for {@link NvTree#NvTree(String)}, without the "random" option)
+	 * @param structure Structure string
+	 */
+	public SuccinctNvTree(String structure) throws TreeNodeException
+	{
+		int[] pre = new int[structure.length()];
+		for (int i=0;i<pre.length;i++)
+		{
+			char c = structure.charAt(i);
+			if ((c<'0')||(c>'9'))
+			{
+				throw new TreeNodeException("You have entered an inavalid tree description: " +
+						"\n the following character is not a digit \n"+c);
+			}
+			pre[i] = c-'0';
+		}
+		build(pre, pre.length);
+	}
+
+	/**
+	 * Constructs a compact copy of a linked tree
+	 * @param tree an nV tree
+	 */
+	public SuccinctNvTree(NvTree tree) throws TreeNodeException
+	{
+		int[] pre = new int[16];
+		int n = 0;
+		ArrayList<TreeNode> stack = new ArrayList<TreeNode>();
+		stack.add(tree.rootNode);
+		while (!stack.isEmpty())
+		{
+			TreeNode node = stack.remove(stack.size()-1);
+			if (n==pre.length)
+			{
+				int[] grown = new int[2*n];
+				System.arraycopy(pre, 0, grown, 0, n);
+				pre = grown;
+			}
+			pre[n++] = node.isLeaf() ? 0 : node.color;
+			if (!node.isLeaf())
+			{
+				stack.add(node.right);
+				stack.add(node.left);
+			}
+		}
+		build(pre, n);
+	}
+
+	/**
+	 * Constructs a copy of another compact tree
+	 * @param T the tree to copy
+	 */
+	public SuccinctNvTree(SuccinctNvTree T)
+	{
+		this.size = T.size;
+		this.colors = T.colors.clone();
+		this.shape = T.shape.clone();
+		this.rankDir = T.rankDir.clone();
+		this.minExcess = T.minExcess.clone();
+	}
+
+	/**
+	 * Fills the arrays from the preorder list of node colors
+	 * @param pre node colors in preorder (0 for leaves)
+	 * @param n number of nodes
+	 */
+	private void build(int[] pre, int n) throws TreeNodeException
+	{
+		if (n==0)
+		{
+			throw new TreeNodeException("Not enough symbols for a tree structure !");
+		}
+		size = n;
+		colors = new long[(n+NIBBLES-1)/NIBBLES];
+		shape = new long[(2*n+WORD-1)/WORD];
+		int pos = 0;
+		int[] pending = new int[n]; //number of children still to come for each open internal node
+		int top = 0;
+		for (int p=0;p<n;p++)
+		{
+			if ((p>0)&&(top==0))
+			{
+				throw new TreeNodeException("Leftover symbols left: "+(n-p));
+			}
+			int c = pre[p];
+			if ((c<0)||(c>=NvTree.MAXCOL))
+			{
+				throw new TreeNodeException("The Color you specified for this node, "+c+", is invalid. Must be 0 to "+NvTree.MAXCOL+".");
+			}
+			colors[p/NIBBLES] |= ((long) c) << (4*(p%NIBBLES));
+			shape[pos/WORD] |= 1L << (pos%WORD);
+			pos++;
+			if (c!=0)
+			{
+				pending[top++] = 2;
+				continue;
+			}
+			pos++; //the leaf closes right away
+			while (top>0)
+			{
+				pending[top-1]--;
+				if (pending[top-1]>0)
+				{
+					break;
+				}
+				top--;
+				pos++;
+			}
+		}
+		if (top>0)
+		{
+			throw new TreeNodeException("Not enough symbols for a tree structure !");
+		}
+		buildDirectory();
+	}
+
+	/**
+	 * Recomputes the rank directory and the per-word excess minima of the shape
+	 */
+	private void buildDirectory()
+	{
+		rankDir = new int[shape.length+1];
+		minExcess = new byte[shape.length];
+		for (int w=0;w<shape.length;w++)
+		{
+			long word = shape[w];
+			rankDir[w+1] = rankDir[w] + Long.bitCount(word);
+			int e = 0;
+			int min = WORD;
+			for (int b=0;b<WORD;b++)
+			{
+				e += ((word>>>b)&1L)!=0 ? 1 : -1;
+				if (e<min) {min = e;}
+			}
+			minExcess[w] = (byte) min;
+		}
+	}
+
+	/**
+	 * Returns the number of nodes in the tree
+	 * @return the number of nodes (leaves and carets)
+	 */
+	public int getNumNodes()
+	{
+		return size;
+	}
+
+	/**
+	 * Counts the number of leaves in the tree
+	 * @return the number of leaves
+	 */
+	public int getNumLeaves()
+	{
+		return (size+1)/2;
+	}
+
+	/**
+	 * Returns the color of a node
+	 * @param node the preorder number of the node
+	 * @return the color of the node, 0 if it is a leaf
+	 */
+	public int getColor(int node)
+	{
+		return (int) ((colors[node/NIBBLES] >>> (4*(node%NIBBLES))) & 0xF);
+	}
+
+	/**
+	 * Reports whether a node is a leaf
+	 * @param node the preorder number of the node
+	 * @return true if the node is a leaf
+	 */
+	public boolean isLeaf(int node)
+	{
+		return getColor(node)==0;
+	}
+
+	/**
+	 * Returns the left child of a node
+	 * @param node the preorder number of a non-leaf node
+	 * @return the preorder number of its left child
+	 */
+	public int leftChild(int node)
+	{
+		return node+1;
+	}
+
+	/**
+	 * Returns the right child of a node
+	 * @param node the preorder number of a non-leaf node
+	 * @return the preorder number of its right child
+	 */
+	public int rightChild(int node)
+	{
+		return node+1+subtreeSize(node+1);
+	}
+
+	/**
+	 * Returns the number of nodes in the subtree at a node
+	 * @param node the preorder number of the node
+	 * @return size of the subtree, 1 for a leaf
+	 */
+	public int subtreeSize(int node)
+	{
+		int open = select1(node+1);
+		return (findClose(open)-open+1)/2;
+	}
+
+	/**
+	 * Position of the k'th open parenthesis in the shape
+	 * @param k the count of the parenthesis, starting with 1
+	 * @return its position
+	 */
+	private int select1(int k)
+	{
+		int lo = 0, hi = shape.length-1; //find the last word w with rankDir[w] < k
+		while (lo<hi)
+		{
+			int mid = (lo+hi+1)/2;
+			if (rankDir[mid]<k) {lo = mid;} else {hi = mid-1;}
+		}
+		long word = shape[lo];
+		for (int j=rankDir[lo]+1;j<k;j++)
+		{
+			word &= word-1;
+		}
+		return lo*WORD + Long.numberOfTrailingZeros(word);
+	}
+
+	/**
+	 * Position of the parenthesis closing the one opened at pos
+	 * @param pos position of an open parenthesis
+	 * @return position of the matching close parenthesis
+	 */
+	private int findClose(int pos)
+	{
+		int e = 1;
+		int i = pos+1;
+		while (i%WORD!=0)
+		{
+			e += ((shape[i/WORD]>>>(i%WORD))&1L)!=0 ? 1 : -1;
+			if (e==0) {return i;}
+			i++;
+		}
+		int w = i/WORD;
+		while (e+minExcess[w]>0)
+		{
+			e += 2*Long.bitCount(shape[w])-WORD;
+			w++;
+		}
+		long word = shape[w];
+		for (int b=0;;b++)
+		{
+			e += ((word>>>b)&1L)!=0 ? 1 : -1;
+			if (e==0) {return w*WORD+b;}
+		}
+	}
+
+	/**
+	 * Returns a node by its path; throws an exception if the tree does not contain such node.
+	 * @param path a string of 0's (go left) and 1's (go right)
+	 * @return the preorder number of the node
+	 */
+	public int nodeByPath(String path) throws TreeNodeException
+	{
+		int node = 0;
+		for (int i=0;i<path.length();i++)
+		{
+			if (isLeaf(node))
+			{
+				throw new TreeNodeException("No leaf with such path !");
+			}
+			node = (path.charAt(i)=='0') ? leftChild(node) : rightChild(node);
+		}
+		return node;
+	}
+
+	/**
+	 * Given a node Super Path, returns the corresponding node
+	 * @param spath the Super Path to the node you want to get
+	 * @return the preorder number of the node with this superpath
+	 */
+	public int nodeBySuperPath(SuperPath spath) throws TreeNodeException
+	{
+		int[] used = new int[NvTree.MAXCOL];
+		int left = 0;
+		for (int i=1;i<NvTree.MAXCOL;i++)
+		{
+			left += spath.getColLength(i);
+		}
+		int node = 0;
+		while (left>0)
+		{
+			int col = getColor(node);
+			if ((col==0)||(used[col]>=spath.getColLength(col)))
+			{
+				throw new TreeNodeException("No node with such path !");
+			}
+			int bit = spath.getBit(col, used[col]);
+			used[col]++;
+			left--;
+			node = (bit==0) ? leftChild(node) : rightChild(node);
+		}
+		return node;
+	}
+
+	/**
+	 * Returns the preorder numbers of the leaves, in DFS order
+	 * @return array of leaf numbers
+	 */
+	public int[] leaves()
+	{
+		int[] ans = new int[getNumLeaves()];
+		int k = 0;
+		for (int p=0;p<size;p++)
+		{
+			if (isLeaf(p))
+			{
+				ans[k++] = p;
+			}
+		}
+		return ans;
+	}
+
+	/**
+	 * Does a detailed DFS of the tree, returning a list of
+	 * (interned) SuperPaths of each leaf, as {@link NvTree#detailedDFS()} does
+	 * @return SuperPaths to leaves as they are discovered
+	 */
+	public ArrayList<SuperPath> detailedDFS() throws TreeNodeException
+	{
+		ArrayList<SuperPath> ans = new ArrayList<SuperPath>(getNumLeaves());
+		scanLeaves(ans, null);
+		return ans;
+	}
+
+	/**
+	 * Gets color depths for each color 1..9; see {@link NvTree#getColorDepths()}
+	 * @return the array containing color depths for each color
+	 */
+	public int[] getColorDepths() throws TreeNodeException
+	{
+		int[] depths = new int[NvTree.MAXCOL];
+		scanLeaves(null, depths);
+		return depths;
+	}
+
+	/**
+	 * Walks over the nodes in preorder keeping track of the path to the current node,
+	 * and reports each leaf.
+	 * @param paths if not null, the SuperPath of each leaf is added to this list
+	 * @param depths if not null, receives the color depths of the tree
+	 */
+	private void scanLeaves(ArrayList<SuperPath> paths, int[] depths) throws TreeNodeException
+	{
+		SuperPath cur = new SuperPath();
+		int[] counts = new int[NvTree.MAXCOL];
+		int[] stackCol = new int[size];
+		boolean[] inRight = new boolean[size];
+		int top = 0;
+		for (int p=0;p<size;p++)
+		{
+			int c = getColor(p);
+			if (c!=0)
+			{
+				stackCol[top] = c;
+				inRight[top] = false;
+				top++;
+				counts[c]++;
+				if (paths!=null) {cur.appendDown(c, true);}
+				continue;
+			}
+			if (paths!=null)
+			{
+				paths.add(new SuperPath(cur).intern());
+			}
+			if (depths!=null)
+			{
+				depths[0] = 1;
+				for (int i=1;i<NvTree.MAXCOL;i++)
+				{
+					depths[i] = Math.max(depths[i], counts[i]);
+				}
+			}
+			while ((top>0)&&(inRight[top-1]))
+			{
+				top--;
+				counts[stackCol[top]]--;
+				if (paths!=null) {cur.goUp(stackCol[top]);}
+			}
+			if (top>0)
+			{
+				inRight[top-1] = true;
+				if (paths!=null)
+				{
+					cur.goUp(stackCol[top-1]);
+					cur.appendDown(stackCol[top-1], false);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Adds a caret at a leaf. Takes time linear in the size of the tree.
+	 * <br>The new leaves get numbers node+1 and node+2; the numbers of the nodes
+	 * after node go up by 2.
+	 * @param node the preorder number of a leaf
+	 * @param color the color to paint the node into
+	 */
+	public void addCaretAt(int node, int color) throws TreeNodeException
+	{
+		if ((node<0)||(node>=size)||(!isLeaf(node)))
+		{
+			throw new TreeNodeException("The node you are trying to append the caret to is not a leaf node");
+		}
+		if ((color<1)||(color>=NvTree.MAXCOL))
+		{
+			throw new TreeNodeException("The Color you specified for this node, "+color+", is invalid. Must be 1 to "+NvTree.MAXCOL+".");
+		}
+		int open = select1(node+1);
+		colors = insertBits(colors, 4*size, 4*(node+1), 8, 0);
+		colors[node/NIBBLES] |= ((long) color) << (4*(node%NIBBLES));
+		shape = insertBits(shape, 2*size, open+1, 4, 0x5); //"()()" inside the leaf's "()"
+		size += 2;
+		buildDirectory();
+	}
+
+	/**
+	 * Inserts bits into a bit array
+	 * @param bits the bit array
+	 * @param length number of bits used in the array
+	 * @param pos where to insert
+	 * @param count how many bits to insert (1 to 63)
+	 * @param value the bits to insert, lowest bit first
+	 * @return the new bit array
+	 */
+	private static long[] insertBits(long[] bits, int length, int pos, int count, long value)
+	{
+		long[] ans = new long[(length+count+WORD-1)/WORD];
+		for (int k=0;k<ans.length;k++)
+		{
+			long old = (k<bits.length) ? bits[k] : 0;
+			long prev = ((k>0)&&(k-1<bits.length)) ? bits[k-1] : 0;
+			long shifted = (old << count) | (prev >>> (WORD-count));
+			long low = lowMask(pos, k);
+			ans[k] = (old & low) | (shifted & ~lowMask(pos+count, k));
+		}
+		for (int j=0;j<count;j++)
+		{
+			if (((value>>>j)&1L)!=0)
+			{
+				ans[(pos+j)/WORD] |= 1L << ((pos+j)%WORD);
+			}
+		}
+		return ans;
+	}
+
+	/**
+	 * Mask of the bits of word k that lie before position pos
+	 * @param pos a bit position
+	 * @param k a word index
+	 * @return the mask
+	 */
+	private static long lowMask(int pos, int k)
+	{
+		int n = pos - k*WORD;
+		if (n<=0) {return 0;}
+		if (n>=WORD) {return -1L;}
+		return (1L << n)-1;
+	}
+
+	/**
+	 * Builds the linked form of this tree
+	 * @return an NvTree with the same structure
+	 */
+	public NvTree toNvTree() throws TreeNodeException
+	{
+		TreeNode root = new TreeNode(null, getColor(0), true);
+		ArrayList<TreeNode> stack = new ArrayList<TreeNode>();
+		if (!isLeaf(0)) {stack.add(root);}
+		for (int p=1;p<size;p++)
+		{
+			TreeNode parent = stack.get(stack.size()-1);
+			boolean isLeft = (parent.left==null);
+			TreeNode node = new TreeNode(parent, getColor(p), isLeft);
+			if (isLeft)
+			{
+				parent.left = node;
+			}
+			else
+			{
+				parent.right = node;
+				stack.remove(stack.size()-1);
+			}
+			if (!isLeaf(p))
+			{
+				stack.add(node);
+			}
+		}
+		return new NvTree(root);
+	}
+
+	/**
+	 * Returns the string form of this Tree
+	 */
+	public String toString()
+	{
+		StringBuilder S = new StringBuilder(size);
+		for (int p=0;p<size;p++)
+		{
+			S.append((char) ('0'+getColor(p)));
+		}
+		return S.toString();
+	}
+}
@@ -18,30 +18,72 @@ package nvTrees;
  * The idea is that if two different trees correspond to the same pattern,
  * then the leaves that correspond to the same block in the pattern
  * will have the same Super Path.
+ * <br>
+ * The color paths are stored packed as bits: the first 64 symbols of
+ * each color path live in one long word (symbol j is bit j of the word),
+ * and the symbols beyond that spill over into extra words that are only
+ * allocated for deep paths. All operations work on the words directly;
+ * the string form of a color path is only built on request.
+ * <br>
+ * A SuperPath can be interned (see {@link #intern()}): interned instances
+ * are immutable, carry a precomputed hash code and are unique among the
+ * live interned instances, so two of them are equal only if they are the
+ * same object. Identical blocks produced by different trees then share one
+ * instance.
  * @author Romwell
  *
  */
 public class SuperPath  {
 
+	/**
+	 * Number of path symbols held in one word
+	 */
+	private static final int WORD = 64;
 	
-	private String[] colorpaths = new String[NvTree.MAXCOL];
+	/**
+	 * The first WORD symbols of each color path.
+	 * Bits past the end of a color path are always 0.
+	 */
+	private long[] heads = new long[NvTree.MAXCOL];
+
+	/**
+	 * The length of each color path
+	 */
+	private int[] lengths = new int[NvTree.MAXCOL];
+
+	/**
+	 * Spill-over words for deep color paths: spill[i][k] holds symbols
+	 * WORD*(k+1) .. WORD*(k+2)-1 of the path in color i.
+	 * The array (and each of its rows) is null until some path gets that deep.
+	 */
+	private long[][] spill = null;
+
+	/**
+	 * Set to true for the immutable instances handed out by {@link SuperPathPool}
+	 */
+	private boolean interned = false;
+
+	/**
+	 * The hash code of an interned instance, computed once when it is interned
+	 */
+	private int hash = 0;
 	
 	/**
 	 * Constructs a new instance of a super path 
 	 * by copying the contents of the array
-	 * @param colorpaths array of color paths
+	 * @param colorpaths array of color paths (strings of 0's and 1's)
 	 */
 	public SuperPath(String[] colorpaths)
 	{
-		for (int i=0;i<colorpaths.length;i++)
+		for (int i=0;(i<colorpaths.length)&&(i<NvTree.MAXCOL);i++)
 		{
-			if (colorpaths[i]!=null)
-			{
-				this.colorpaths[i] = colorpaths[i];
-			}
-			else
+			String S = colorpaths[i];
+			if (S!=null)
 			{
-				this.colorpaths[i] = "";
+				for (int j=0;j<S.length();j++)
+				{
+					push(i, S.charAt(j)=='1');
+				}
 			}
 		}
 	}
@@ -54,11 +96,6 @@ public class SuperPath  {
 	 */
 	public SuperPath()
 	{
-		this.colorpaths = new String[NvTree.MAXCOL];
-		for (int i=0;i<colorpaths.length;i++)
-		{
-			colorpaths[i]="";
-		}
 	}
 	
 
@@ -67,7 +104,128 @@ public class SuperPath  {
 	 */
 	public SuperPath(SuperPath P)
 	{
-		this(P.colorpaths);
+		this.heads = P.heads.clone();
+		this.lengths = P.lengths.clone();
+		if (P.spill != null)
+		{
+			this.spill = new long[NvTree.MAXCOL][];
+			for (int i=0;i<NvTree.MAXCOL;i++)
+			{
+				if (P.spill[i]!=null) {this.spill[i] = P.spill[i].clone();}
+			}
+		}
+	}
+
+	/**
+	 * Returns the interned instance equal to this super path, creating it if needed.
+	 * The interned instance is immutable: appendDown(), goUp() and eatDown() throw
+	 * an exception when called on it. Use the copy constructor to get a modifiable copy.
+	 * @return the unique live interned super path equal to this one
+	 */
+	public SuperPath intern()
+	{
+		if (interned)
+		{
+			return this;
+		}
+		return SuperPathPool.intern(this);
+	}
+
+	/**
+	 * Tells whether this instance is interned (and thus immutable)
+	 * @return true if this super path came from the intern pool
+	 */
+	public boolean isInterned()
+	{
+		return interned;
+	}
+
+	/**
+	 * Makes an immutable copy of this super path with a precomputed hash code.
+	 * Used by the intern pool only.
+	 * @return a new interned instance equal to this one
+	 */
+	SuperPath internedCopy()
+	{
+		SuperPath P = new SuperPath(this);
+		P.hash = P.computeHash();
+		P.interned = true;
+		return P;
+	}
+
+	/**
+	 * Throws an exception if this super path may not be modified
+	 * @throws TreeNodeException if this instance is interned
+	 */
+	private void checkModifiable() throws TreeNodeException
+	{
+		if (interned)
+		{
+			throw new TreeNodeException("Cannot modify an interned SuperPath "+this+"; make a copy first.");
+		}
+	}
+
+	/**
+	 * Returns the k'th word of the path in color i
+	 * @param i the color
+	 * @param k the index of the word
+	 * @return the word (0 if it was never allocated)
+	 */
+	private long word(int i, int k)
+	{
+		if (k==0)
+		{
+			return heads[i];
+		}
+		if ((spill==null)||(spill[i]==null)||(spill[i].length<k))
+		{
+			return 0;
+		}
+		return spill[i][k-1];
+	}
+
+	/**
+	 * Stores the k'th word of the path in color i, allocating spill-over space if needed
+	 * @param i the color
+	 * @param k the index of the word
+	 * @param w the new value of the word
+	 */
+	private void setWord(int i, int k, long w)
+	{
+		if (k==0)
+		{
+			heads[i] = w;
+			return;
+		}
+		if (spill==null)
+		{
+			if (w==0) {return;}
+			spill = new long[NvTree.MAXCOL][];
+		}
+		if ((spill[i]==null)||(spill[i].length<k))
+		{
+			if (w==0) {return;}
+			long[] grown = new long[Math.max(k, 2*((spill[i]==null) ? 0 : spill[i].length))];
+			if (spill[i]!=null) {System.arraycopy(spill[i], 0, grown, 0, spill[i].length);}
+			spill[i] = grown;
+		}
+		spill[i][k-1] = w;
+	}
+
+	/**
+	 * Appends a symbol to the path in color i without any checks
+	 * @param i the color
+	 * @param one true to append 1, false to append 0
+	 */
+	private void push(int i, boolean one)
+	{
+		int len = lengths[i];
+		if (one)
+		{
+			int k = len / WORD;
+			setWord(i, k, word(i,k) | (1L << (len % WORD)));
+		}
+		lengths[i] = len+1;
 	}
 	
 	/**
@@ -76,9 +234,9 @@ public class SuperPath  {
 	 */
 	public boolean isEmpty()
 	{
-		for (String S:colorpaths)
+		for (int len:lengths)
 		{
-			if ((S!=null)&&(S.length()>0))
+			if (len>0)
 			{
 				return false;
 			}
@@ -93,13 +251,34 @@ public class SuperPath  {
 	 */
 	public boolean equals(Object o)
 	{
-		
+		if (this == o)
+		{
+			return true;
+		}
+		if (!(o instanceof SuperPath))
+		{
+			return false;
+		}
+		SuperPath p = (SuperPath) o;
+		if (this.interned && p.interned)  //interned instances are unique
+		{
+			return false;
+		}
+		return sameContents(p);
+	}
+
+	/**
+	 * Tells whether this path has the same color paths as some other path,
+	 * without assuming that interned instances are unique.
+	 * The intern pool uses this to compare its own entries.
+	 * @param p the other path
+	 * @return true if the color paths are the same
+	 */
+	boolean sameContents(SuperPath p)
+	{
 		for (int i=1;i<NvTree.MAXCOL;i++)
 		{
-			SuperPath p = (SuperPath) o;
-			String S = this.colorpaths[i]; if (S==null) {S="";}
-			String T = p.colorpaths[i]; if (T==null) {T="";}
-			if (!S.equals(T))
+			if (!sameColPath(this, p, i))
 			{
 				return false;
 			}
@@ -113,7 +292,52 @@ public class SuperPath  {
 	 */
 	public int hashCode()
 	{
-		return this.toString().hashCode();
+		if (interned)
+		{
+			return hash;
+		}
+		return computeHash();
+	}
+
+	/**
+	 * Computes the hash code from the packed color paths
+	 * @return the hash code of this super path
+	 */
+	private int computeHash()
+	{
+		int h = 0;
+		for (int i=1;i<NvTree.MAXCOL;i++)
+		{
+			int len = lengths[i];
+			h = 31*h + len;
+			for (int k=0;k*WORD<len;k++)
+			{
+				h = 31*h + Long.hashCode(word(i,k));
+			}
+		}
+		return h;
+	}
+
+	/**
+	 * Computes a 64-bit hash of the color paths, mixed into a seed.
+	 * Unlike hashCode(), this is meant to be strong enough for {@link Fingerprint}s:
+	 * different seeds give practically independent hashes of the same path.
+	 * @param seed the starting value of the hash
+	 * @return the hash of this super path
+	 */
+	long hash64(long seed)
+	{
+		long h = seed;
+		for (int i=1;i<NvTree.MAXCOL;i++)
+		{
+			int len = lengths[i];
+			h = Fingerprint.mix(h ^ (len + 0x9E3779B97F4A7C15L*i));
+			for (int k=0;k*WORD<len;k++)
+			{
+				h = Fingerprint.mix(h ^ word(i,k));
+			}
+		}
+		return h;
 	}
 	
 	/**
@@ -121,16 +345,100 @@ public class SuperPath  {
 	 */ 
 	public String toString()
 	{
-		String ans ="[ ";
-		for (int i=1; i<colorpaths.length;i++)
+		StringBuilder ans = new StringBuilder("[ ");
+		for (int i=1; i<NvTree.MAXCOL;i++)
 		{
-			if ((colorpaths[i]!=null)&&(colorpaths[i].length()>0))
+			if (lengths[i]>0)
 				{
-					ans += i +":"+colorpaths[i] +"; ";
+					ans.append(i).append(':').append(getColPath(i)).append("; ");
 				}
 		}
-		ans+="]";
-		return ans;
+		ans.append(']');
+		return ans.toString();
+	}
+
+	/**
+	 * Tells whether the paths of P1 and P2 in color i are the same
+	 * @param P1 a super path
+	 * @param P2 another super path
+	 * @param i the color to compare
+	 * @return true if the color paths are equal
+	 */
+	static boolean sameColPath(SuperPath P1, SuperPath P2, int i)
+	{
+		int len = P1.lengths[i];
+		if (len != P2.lengths[i])
+		{
+			return false;
+		}
+		for (int k=0;k*WORD<len;k++)
+		{
+			if (P1.word(i,k)!=P2.word(i,k))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tells whether the first len symbols of the paths of P1 and P2 in color i agree.
+	 * Both paths must be at least len symbols long.
+	 * @param P1 a super path
+	 * @param P2 another super path
+	 * @param i the color to compare
+	 * @param len the length of the prefix to compare
+	 * @return true if the prefixes are the same
+	 */
+	private static boolean samePrefix(SuperPath P1, SuperPath P2, int i, int len)
+	{
+		int k=0;
+		for (;(k+1)*WORD<=len;k++)
+		{
+			if (P1.word(i,k)!=P2.word(i,k))
+			{
+				return false;
+			}
+		}
+		int rest = len % WORD;
+		if (rest>0)
+		{
+			long mask = (1L << rest) - 1;
+			return ((P1.word(i,k)^P2.word(i,k))&mask)==0;
+		}
+		return true;
+	}
+
+	/**
+	 * Compares the paths of P1 and P2 in color i the same way as
+	 * String.compareTo() compares their string forms
+	 * (i.e. "0" &lt; "1", and a path is smaller than its extensions).
+	 * @param P1 a super path
+	 * @param P2 another super path
+	 * @param i the color to compare
+	 * @return -1 or 1 if the paths differ at a common position (depending on the
+	 * symbol of P1 there); otherwise the difference of the path lengths
+	 */
+	static int compareColPaths(SuperPath P1, SuperPath P2, int i)
+	{
+		int len1 = P1.lengths[i];
+		int len2 = P2.lengths[i];
+		int len = Math.min(len1, len2);
+		for (int k=0;k*WORD<len;k++)
+		{
+			long diff = P1.word(i,k)^P2.word(i,k);
+			int rest = len - k*WORD;
+			if (rest<WORD)
+			{
+				diff &= (1L << rest) - 1;
+			}
+			if (diff!=0)
+			{
+				long bit = Long.lowestOneBit(diff);
+				return ((P1.word(i,k)&bit)==0) ? -1 : 1;
+			}
+		}
+		return len1-len2;
 	}
 	
 	/**
@@ -142,9 +450,8 @@ public class SuperPath  {
 	 */
 	static boolean areIntersecting(SuperPath P1, SuperPath P2){
 		for (int i=1; i<NvTree.MAXCOL; i++){
-			String S1 = P1.colorpaths[i]; 
-			String S2 = P2.colorpaths[i];
-			if (!(S1.startsWith(S2) || S2.startsWith(S1)))
+			int len = Math.min(P1.lengths[i], P2.lengths[i]);
+			if (!samePrefix(P1, P2, i, len))
 			{
 				return false;
 			}
@@ -161,12 +468,12 @@ public class SuperPath  {
 	 */
 	public int sizeLog()
 	{
-		String len="";
+		int len=0;
 		for (int i=1;i<NvTree.MAXCOL;i++)
 		{
-			len+=this.getColPath(i);
+			len+=lengths[i];
 		}
-		return len.length();
+		return len;
 	}
 
 	
@@ -187,22 +494,14 @@ public class SuperPath  {
 	
 	public void appendDown(int i, boolean goLeft) throws TreeNodeException
 	{
+		checkModifiable();
 		if ((i<1)||(i>=NvTree.MAXCOL))
 		{
-			throw new TreeNodeException("Cannot go up in color "+i+ ": invalid color.");
+			throw new TreeNodeException("Cannot go down in color "+i+ ": invalid color.");
 		}
 		else
 		{
-			String S = this.colorpaths[i];
-			if (goLeft)
-			{
-				S+='0';
-			}
-			else
-			{
-				S+='1';
-			}
-			this.colorpaths[i]=S;
+			push(i, !goLeft);
 		}		
 	}
 	
@@ -223,15 +522,17 @@ public class SuperPath  {
 	 */
 	public void goUp(int i) throws TreeNodeException
 	{
-		if ((i<1)||(i>=NvTree.MAXCOL)||(colorpaths[i]==null)||(colorpaths[i].length()==0))
+		checkModifiable();
+		if ((i<1)||(i>=NvTree.MAXCOL)||(lengths[i]==0))
 		{
 			throw new TreeNodeException("Cannot go up in color "+i+ "! The color path is that color is empty.");
 		}
 		else
 		{
-			String S = colorpaths[i];
-			S = S.substring(0, S.length()-1);
-			this.colorpaths[i]=S;
+			int len = lengths[i]-1;
+			int k = len / WORD;
+			setWord(i, k, word(i,k) & ~(1L << (len % WORD)));
+			lengths[i] = len;
 		}
 	}
 	
@@ -254,15 +555,20 @@ public class SuperPath  {
 	 */
 	public void eatDown(int i) throws TreeNodeException
 	{
-		if ((i<1)||(i>=NvTree.MAXCOL)||(colorpaths[i]==null)||(colorpaths[i].length()==0))
+		checkModifiable();
+		if ((i<1)||(i>=NvTree.MAXCOL)||(lengths[i]==0))
 		{
 			throw new TreeNodeException("Cannot go up in color "+i+ "! The color path is that color is empty.");
 		}
 		else
 		{
-			String S = colorpaths[i];
-			S = S.substring(1);
-			this.colorpaths[i]=S;
+			int len = lengths[i];
+			for (int k=0;k*WORD<len;k++)
+			{
+				long w = (word(i,k) >>> 1) | (word(i,k+1) << (WORD-1));
+				setWord(i, k, w);
+			}
+			lengths[i] = len-1;
 		}
 	}
 	
@@ -281,8 +587,39 @@ public class SuperPath  {
 		}
 		else
 		{
-			return colorpaths[i];
+			int len = lengths[i];
+			char[] S = new char[len];
+			for (int j=0;j<len;j++)
+			{
+				S[j] = (getBit(i,j)==0) ? '0' : '1';
+			}
+			return new String(S);
+		}
+	}
+
+	/**
+	 * Returns the length of the color path of the corresponding color
+	 * @param i the color whose path length you want to get
+	 * @return the number of symbols in the path at color i
+	 */
+	public int getColLength(int i)
+	{
+		if ((i<1)||(i>=NvTree.MAXCOL))
+		{
+			return 0;
 		}
+		return lengths[i];
+	}
+
+	/**
+	 * Returns one symbol of the color path of the corresponding color
+	 * @param i the color
+	 * @param j the position of the symbol; must be less than getColLength(i)
+	 * @return 0 or 1
+	 */
+	public int getBit(int i, int j)
+	{
+		return (int) ((word(i, j / WORD) >>> (j % WORD)) & 1L);
 	}
 	
 	
@@ -295,9 +632,8 @@ public class SuperPath  {
 	 */
 	public double getWidth(int i)
 	{
-		String S = getColPath(i);
 		double ans = 1.0;
-		return ans / Math.pow(2, S.length());
+		return ans / Math.pow(2, getColLength(i));
 	}
 	
 	
@@ -310,19 +646,37 @@ public class SuperPath  {
 	 */
 	public double getOffset(int i)
 	{
-		String S = getColPath(i);
+		int len = getColLength(i);
 		double power = 1.0;
 		double ans = 0;
-		for (int j=0;j<S.length();j++)
+		for (int j=0;j<len;j++)
 		{
 			power = power / 2.0;
-			int digit = Integer.valueOf(""+S.charAt(j));
-			ans += power*digit;
-			
+			ans += power*getBit(i,j);
 		}
 		return ans;
 	}
 	
+
+	/**
+	 * Returns the sibling of this block along a color, i.e. the other half
+	 * of the block that was cut along that color to make this one.
+	 * <br>Ex.: for 1: 01, 2: 1, the sibling along 1 is 1: 00, 2: 1
+	 * @param i the color
+	 * @return a new super path that differs from this one in the last symbol of the path in color i
+	 * @throws TreeNodeException if the path in color i is empty
+	 */
+	public SuperPath sibling(int i) throws TreeNodeException
+	{
+		if ((i<1)||(i>=NvTree.MAXCOL)||(lengths[i]==0))
+		{
+			throw new TreeNodeException("The block "+this+" has no sibling in color "+i);
+		}
+		SuperPath S = new SuperPath(this);
+		int last = lengths[i]-1;
+		S.setWord(i, last/WORD, S.word(i, last/WORD) ^ (1L << (last%WORD)));
+		return S;
+	}
 	
 	/**
 	 * Tests if the block represented by the superpath is adjacent
@@ -338,28 +692,23 @@ public class SuperPath  {
 	public int isAdjacentTo(SuperPath P)
 	{
 		int ans = -1;
-		for (int i=0;i<NvTree.MAXCOL;i++)
+		for (int i=1;i<NvTree.MAXCOL;i++)
 		{			
-			String S1 = this.getColPath(i);
-			String S2 = P.getColPath(i);
-			if (!S1.equals(S2))
+			int len = lengths[i];
+			if (len != P.lengths[i])  //if the lengths differ, the blocks cannot be adjacent
 			{
-				if ((ans>-1)|| (S1.length() != S2.length()))  //if P differes in more than one colorpath,									
-				{										   //or differs too much in any, return false
-					return -1;
-				}
-				else
+				return -1;
+			}
+			for (int k=0;k*WORD<len;k++)
+			{
+				long diff = word(i,k)^P.word(i,k);
+				if (diff!=0)
 				{
-					S1 = S1.substring(0, S1.length()-1);
-					S2 = S2.substring(0, S2.length()-1);
-					if (S2.equals(S1))
-					{
-						ans = i;			//ans is set only if the first unequal strings are of same length
-					}						//and differ in the last character
-					else
-					{
-						return -1;
+					if ((ans>-1)||(diff != (1L << ((len-1) % WORD)))||(k != (len-1) / WORD))
+					{											//if P differes in more than one colorpath,
+						return -1;								//or differs in anything but the last symbol, return false
 					}
+					ans = i;
 				}
 			}
 		}
@@ -0,0 +1,134 @@
+package nvTrees;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A pool of interned (immutable, hash-consed) SuperPaths.
+ * <br>
+ * For every block that is currently in use, the pool holds at most one
+ * interned SuperPath instance. The instances are held through weak references,
+ * so blocks that are no longer used anywhere are dropped from the pool
+ * by the garbage collector. The pool may be used from several threads at once.
+ * <br>
+ * Call {@link SuperPath#intern()} rather than using this class directly.
+ * @author Romwell
+ *
+ */
+public class SuperPathPool {
+
+	/**
+	 * The pool itself. Keys and values are the same reference objects;
+	 * a key is looked up by the contents of the SuperPath it refers to.
+	 */
+	private static final ConcurrentHashMap<Entry, Entry> pool = new ConcurrentHashMap<Entry, Entry>();
+
+	/**
+	 * The garbage collector puts the entries whose SuperPaths were collected here
+	 */
+	private static final ReferenceQueue<SuperPath> collected = new ReferenceQueue<SuperPath>();
+
+	/**
+	 * A weak reference to a SuperPath that hashes and compares by the contents
+	 * of the SuperPath. A cleared entry is only equal to itself.
+	 */
+	private static class Entry extends WeakReference<SuperPath>
+	{
+		/**
+		 * Hash code of the referenced SuperPath, kept so that the entry can
+		 * still be found (and removed) after it was cleared
+		 */
+		private final int hash;
+
+		/**
+		 * Creates a new entry
+		 * @param P the SuperPath to refer to
+		 * @param queue the queue to register with, or null for lookup entries
+		 */
+		Entry(SuperPath P, ReferenceQueue<SuperPath> queue)
+		{
+			super(P, queue);
+			this.hash = P.hashCode();
+		}
+
+		public int hashCode()
+		{
+			return hash;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (this == o)
+			{
+				return true;
+			}
+			if (!(o instanceof Entry))
+			{
+				return false;
+			}
+			SuperPath P = this.get();
+			SuperPath Q = ((Entry) o).get();
+			return (P!=null)&&(Q!=null)&&(P.sameContents(Q)); //equals() would call two interned paths different
+		}
+	}
+
+	/**
+	 * Returns the interned SuperPath equal to P. If there is none yet, an immutable
+	 * copy of P is interned and returned.
+	 * @param P a super path
+	 * @return the unique live interned super path equal to P
+	 */
+	public static SuperPath intern(SuperPath P)
+	{
+		if (P.isInterned())
+		{
+			return P;
+		}
+		removeCollected();
+		Entry probe = new Entry(P, null);
+		while (true)
+		{
+			Entry found = pool.get(probe);
+			SuperPath Q = (found==null) ? null : found.get();
+			if (Q!=null)
+			{
+				return Q;
+			}
+			SuperPath copy = P.internedCopy();
+			Entry entry = new Entry(copy, collected);
+			found = pool.putIfAbsent(entry, entry);
+			if (found==null)
+			{
+				return copy;
+			}
+			Q = found.get();
+			if (Q!=null)
+			{
+				return Q;
+			}
+			pool.remove(found, found); //the other entry was just collected; try again
+		}
+	}
+
+	/**
+	 * Returns the number of entries currently held by the pool
+	 * (some of them may refer to SuperPaths that were already collected)
+	 * @return the size of the pool
+	 */
+	public static int size()
+	{
+		return pool.size();
+	}
+
+	/**
+	 * Removes the entries whose SuperPaths were garbage collected
+	 */
+	private static void removeCollected()
+	{
+		Object ref;
+		while ((ref = collected.poll())!=null)
+		{
+			pool.remove(ref, ref);
+		}
+	}
+}
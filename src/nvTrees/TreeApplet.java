@@ -58,6 +58,11 @@ public class TreeApplet extends JApplet implements  ChangeListener, KeyListener,
 	 * The prefix of the default data files that will be loaded upon startup
 	 */
 	static final String defaultFname =  "~default";
+	
+	/**
+	 * File that growth computations save their state to
+	 */
+	static final String growthCheckpointFname = "~growth.ckp";
 
 	/**
 	 * Used to retrieve commands from history when user hits up or down arrows
@@ -543,6 +548,10 @@ public class TreeApplet extends JApplet implements  ChangeListener, KeyListener,
     * <li>\save filename <br>Saves session to filename.nvt as a text file</li>
     * <li>\load filename <br>Loads session from a text file filename.nvt and re-runs the history</li>
     * <li>\qload filename <br>Quick-load session from a text file filename.nvt: load variable values into memory without re-runnning</li>
+    * <li>\growth g_1 g_2 ... g_k, n <br>Computes the growth function of the semigroup generated by g_1..g_k, 
+    * saving its state to ~growth.ckp after every radius</li>
+    * <li>\resume <br>Continues the growth computation saved in ~growth.ckp</li>
+    * <li>\resume filename, n <br>Continues the growth computation saved in filename up to radius n</li>
     * <li>\help<br>Displays some help</li>
     * <li>\about<br>Displays about box</li>
     * </ul> 
@@ -613,14 +622,23 @@ public class TreeApplet extends JApplet implements  ChangeListener, KeyListener,
 			 String genSet = ST.nextToken().trim();
 			 String nStr = ST.nextToken().trim();
 			 int n = Integer.parseInt(nStr);
-			 int[] growthData = growth(genSet, n);
-			 String gdisp = "Growth: ";
-			 for (int i=0; i<growthData.length-1; i++){
-				 gdisp += growthData[i] +", ";
-			 }
-			 gdisp += growthData[growthData.length-1];
-			 dispData.add(gdisp);
+			 displayGrowth(growth(genSet, n));
+		 }
+	 }
+	 else if ((S.equals("resume"))||S.startsWith("resume ")) //continue a growth computation from its checkpoint
+	 {
+		 //get the filename and the radius, which start after "resume "
+		 if (S.length()>=7){S = S.substring(7);} else {S="";}
+		 String fname = S;
+		 int n = 0; //0 means the radius the computation was started with
+		 int comma = S.indexOf(',');
+		 if (comma>=0){
+			 fname = S.substring(0, comma);
+			 n = Integer.parseInt(S.substring(comma+1).trim());
 		 }
+		 fname = fname.trim();
+		 if (fname.equals("")){fname = growthCheckpointFname;}
+		 displayGrowth(GrowthEngine.resume(new File(fname), n));
 	 }
 	 else
 	 {
@@ -630,7 +648,23 @@ public class TreeApplet extends JApplet implements  ChangeListener, KeyListener,
    }
    
    /**
-    * Computes the growth function of the semigroup generated by a list of group elements
+    * Shows the values of a growth function
+    * @param growthData the values, as returned by growth()
+    */
+   private void displayGrowth(int[] growthData)
+   {
+	   String gdisp = "Growth: ";
+	   for (int i=0; i<growthData.length-1; i++){
+		   gdisp += growthData[i] +", ";
+	   }
+	   gdisp += growthData[growthData.length-1];
+	   dispData.add(gdisp);
+   }
+   
+   /**
+    * Computes the growth function of the semigroup generated by a list of group elements.
+    * The state of the computation is saved to growthCheckpointFname after every radius,
+    * so it can be continued with \resume if it gets interrupted.
     * @param genSet a string containing variable names, separated by spaces, which form the generating set
     * @return the values of the growth function. Refer to TreePair.growth() for more info.
     */
@@ -649,7 +683,16 @@ public class TreeApplet extends JApplet implements  ChangeListener, KeyListener,
 			   throw new TreeNodeException("Variable " + v + " is not a tree pair.");
 		   }
 	   }
-	   return TreePair.growth(S, n);
+	   GrowthEngine engine = new GrowthEngine(S);
+	   try
+	   {
+		   engine.setCheckpoint(new File(growthCheckpointFname));
+		   return engine.growth(n);
+	   }
+	   finally
+	   {
+		   engine.close();
+	   }
    }
    
    
@@ -183,7 +183,7 @@ public class TreeDrawer implements Drawable{
 			String label;
 			if (root.isLeaf()&&(leaf_labels!=null)&&(count<leaf_labels.length))
 			{
-				label = ""+leaf_labels[count];//+"="+root.path;
+				label = ""+leaf_labels[count];//+"="+root.getPath();
 				count++;
 			}
 			else
@@ -3,6 +3,11 @@ package nvTrees;
  * This class represents a tree node in an nV tree.
  * <br>
  * See nvTree documentation for description of nV trees.
+ * <br>
+ * Each node keeps the number of leaves, the depth and the color depths of its subtree.
+ * They are set for a whole tree by {@link #updateSubtree(TreeNode)} (the NvTree constructors call it),
+ * and kept up to date along the path to the root by {@link #addCaret(int)} and {@link #removeCaret()}.
+ * Code that changes left, right or color directly must call updateSubtree() on the root afterwards.
  * @author Romwell
  *
  */
@@ -26,28 +31,37 @@ public class TreeNode {
 	public int color;
 	
 	/**
-	 * The SuperPath to the node. See the documentation for {@link SuperPath} for details.
+	 * Reference to the parent node
 	 */
-	private SuperPath superpath;
+	public TreeNode parent;
 	
 	/**
-	 * Reference to the parent node
+	 * The color depths of a leaf; shared by all leaves, and never changed
 	 */
-	public TreeNode parent;
+	private static final int[] LEAF_DEPTHS = {1};
 	
 	/**
-	 * A string of 0's and 1's that holds the path from the root node;
-	 * <b>0 means take the left path
-	 * <b>1 means take the right path
-	 */ 
-	public String path;
+	 * Number of leaves of the subtree at this node
+	 */
+	private int numLeaves = 1;
 	
+	/**
+	 * Depth of the subtree at this node (1 for a leaf)
+	 */
+	private int depth = 1;
 	
+	/**
+	 * Color depths of the subtree at this node, see {@link NvTree#getColorDepths()}.
+	 * The array stops at the largest color used in the subtree, to keep the nodes small.
+	 */
+	private int[] colorDepths = LEAF_DEPTHS;
+
 	/**
 	 * Creates a new TreeNode
 	 * @param parent reference to the  parent node 
 	 * @param color the color of the node
-	 * @param isLeftChild is this node a left child ? value not used if parent is null
+	 * @param isLeftChild is this node a left child ? Not stored: once the node is attached,
+	 * this is read off the parent's left reference (see {@link #isLeftChild()})
 	 */
 	public TreeNode(TreeNode parent, int color, boolean isLeftChild) throws TreeNodeException
 	{
@@ -57,28 +71,6 @@ public class TreeNode {
 		}
 		this.parent = parent;
 		this.color = color;
-		this.superpath = new SuperPath();
-		if (parent != null)
-		{		
-			String S = parent.path;
-			this.superpath = new SuperPath(parent.superpath);
-			int col = parent.color;			
-			
-			if (isLeftChild)
-			{
-				superpath.appendDown(col, true);
-				this.path = S + '0';				
-			}
-			else
-			{
-				superpath.appendDown(col, false);
-				this.path = S + '1';
-			}
-		}
-		else
-		{
-			this.path="";
-		}		
 	}
 	
 	/**
@@ -87,22 +79,148 @@ public class TreeNode {
 	 */
 	public int getNumLeaves()
 	{
-		int count = 0; 
-		if (left != null)
+		return numLeaves;
+	}
+	
+	/**
+	 * Returns the depth of the subtree at this node
+	 * @return the depth of the subtree; 1 if it is a leaf
+	 */
+	public int getDepth()
+	{
+		return depth;
+	}
+	
+	/**
+	 * Gets the color depths of the subtree at this node; see {@link NvTree#getColorDepths()}
+	 * @return a copy of the color depths
+	 */
+	public int[] getColorDepths()
+	{
+		int[] ans = new int[NvTree.MAXCOL];
+		System.arraycopy(colorDepths, 0, ans, 0, colorDepths.length);
+		return ans;
+	}
+	
+	/**
+	 * Returns the color depth of one color in the subtree at this node
+	 * @param i the color
+	 * @return the largest number of carets of color i on a path from this node to a leaf
+	 */
+	public int getColorDepth(int i)
+	{
+		return (i<colorDepths.length) ? colorDepths[i] : 0;
+	}
+	
+	/**
+	 * Adds a caret at a leaf: the leaf gets the color and two new leaf children.
+	 * The subtree statistics of the ancestors are updated.
+	 * @param color the color of the caret, 1 to 9
+	 */
+	public void addCaret(int color) throws TreeNodeException
+	{
+		if (!isLeaf())
 		{
-			count += left.getNumLeaves();
+			throw new TreeNodeException("The node you are trying to append the caret to is not a leaf node");
 		}
-		if (right != null)
+		if ((color<=0)||(color>=NvTree.MAXCOL))
 		{
-			count += right.getNumLeaves();
+			throw new TreeNodeException("The Color you specified for this node, "+color+", is invalid. Must be 1 to "+NvTree.MAXCOL+".");
 		}
-		if ((left == null)&&(right == null))
+		this.color = color;
+		left = new TreeNode(this,0,true);
+		right = new TreeNode(this,0,false);
+		updateUp();
+	}
+	
+	/**
+	 * Removes the subtree below this node, which becomes a leaf.
+	 * The subtree statistics of the ancestors are updated.
+	 */
+	public void removeCaret()
+	{
+		color = 0;
+		left = null;
+		right = null;
+		updateUp();
+	}
+	
+	/**
+	 * Recomputes the statistics of this node and of its ancestors
+	 */
+	private void updateUp()
+	{
+		for (TreeNode node = this; node != null; node = node.parent)
 		{
-			return 1;
+			node.update();
 		}
-		else
+	}
+	
+	/**
+	 * Recomputes the statistics of this node from those of its children
+	 */
+	private void update()
+	{
+		if (isLeaf())
+		{
+			numLeaves = 1;
+			depth = 1;
+			if (color == 0)
+			{
+				colorDepths = LEAF_DEPTHS;
+			}
+			else
+			{
+				colorDepths = new int[color+1];
+				colorDepths[color] = 1;
+			}
+			return;
+		}
+		numLeaves = left.numLeaves + right.numLeaves;
+		depth = 1 + Math.max(left.depth, right.depth);
+		int n = Math.max(color+1, Math.max(left.colorDepths.length, right.colorDepths.length));
+		if ((colorDepths == LEAF_DEPTHS)||(colorDepths.length != n))
+		{
+			colorDepths = new int[n];
+		}
+		for (int i=0;i<n;i++)
+		{
+			colorDepths[i] = Math.max(left.getColorDepth(i), right.getColorDepth(i));
+		}
+		colorDepths[color]++;
+	}
+	
+	/**
+	 * Computes the statistics of every node of a subtree, children before parents.
+	 * The subtree is walked along the parent references, so deep trees need no stack.
+	 * @param root the root of the subtree
+	 */
+	public static void updateSubtree(TreeNode root)
+	{
+		TreeNode node = root;
+		while (!node.isLeaf())
 		{
-			return count;
+			node = node.left;
+		}
+		while (true)
+		{
+			node.update();
+			if (node == root)
+			{
+				return;
+			}
+			if (node.isLeftChild())
+			{
+				node = node.parent.right;
+				while (!node.isLeaf())
+				{
+					node = node.left;
+				}
+			}
+			else
+			{
+				node = node.parent;
+			}
 		}
 	}
 	
@@ -116,12 +234,66 @@ public class TreeNode {
 	}
 
 	/**
-	 * Gets the node's superpath 
-	 * @return A copy of the node's superpath
+	 * Tells whether this node is the left child of its parent
+	 * @return true if the node has a parent and is its left child
+	 */
+	public boolean isLeftChild()
+	{
+		return (parent != null)&&(parent.left == this);
+	}
+	
+	/**
+	 * Gets the path from the root node: a string of 0's and 1's, where
+	 * <b>0 means take the left path
+	 * <b>1 means take the right path
+	 * <br>The path is not stored in the node; it is computed by following the parent references.
+	 * This replaces the public path field that older versions kept in every node.
+	 * @return the path to this node
+	 */
+	public String getPath()
+	{
+		StringBuilder S = new StringBuilder();
+		for (TreeNode node = this; node.parent != null; node = node.parent)
+		{
+			S.append(node.isLeftChild() ? '0' : '1');
+		}
+		return S.reverse().toString();
+	}
+
+	/**
+	 * Gets the node's superpath. See the documentation for {@link SuperPath} for details.
+	 * <br>The superpath is not stored in the node; it is computed by following the parent references.
+	 * @return A new copy of the node's superpath
+	 * @throws IllegalStateException if an ancestor of the node has an invalid color,
+	 * which only happens if the tree was corrupted
 	 */
-	public SuperPath getSuperpath() 
+	public SuperPath getSuperpath()
 	{
-		return new SuperPath(superpath);
+		int depth = 0;
+		for (TreeNode node = this; node.parent != null; node = node.parent)
+		{
+			depth++;
+		}
+		TreeNode[] ancestors = new TreeNode[depth];
+		TreeNode node = this;
+		for (int i=depth-1;i>=0;i--)
+		{
+			ancestors[i] = node;
+			node = node.parent;
+		}
+		SuperPath P = new SuperPath();
+		try
+		{
+			for (TreeNode A:ancestors)
+			{
+				P.appendDown(A.parent.color, A.isLeftChild());
+			}
+		}
+		catch (TreeNodeException e)
+		{
+			throw new IllegalStateException("Corrupt tree: cannot build the superpath of a node", e);
+		}
+		return P;
 	}
 
 	
@@ -1,6 +1,5 @@
 package nvTrees;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.StringTokenizer;
@@ -40,6 +39,33 @@ public class TreePair {
 	 */
 	private  TreePermutation permutation;
 	
+	/**
+	 * Set to true once the pair is made immutable; see {@link #freeze()}
+	 */
+	private boolean immutable = false;
+	
+	/**
+	 * The inverse of an immutable pair, once it was asked for. 
+	 * It shares the trees and the (bidirectional) block map with this pair.
+	 */
+	private volatile TreePair inverse = null;
+	
+	/**
+	 * Set to true on the pairs returned by reduce(), which are already in canonical form
+	 */
+	private boolean canonical = false;
+	
+	/**
+	 * The fingerprint of an immutable pair, once it was asked for
+	 */
+	private volatile Fingerprint fingerprint = null;
+	
+	/**
+	 * The power engine of an immutable pair, once a power of it was asked for.
+	 * It keeps the repeated squares, so later powers reuse them.
+	 */
+	private volatile PowerEngine powers = null;
+	
 	/**
 	 * Constructs a tree pair from a pair of trees and a permutation
 	 * <ul>
@@ -128,6 +154,7 @@ public class TreePair {
 	 */
 	public void makeRandom(String paramString) throws TreeNodeException
 	{
+		checkMutable();
 		if (paramString.matches("\\d+ \\d+"))
 		{
 		StringTokenizer T = new StringTokenizer(paramString);
@@ -166,9 +193,19 @@ public class TreePair {
 	 */
 	public void addCaretOnLeftTreeAt(String nodepath, int color) throws TreeNodeException
 	{
+		addCaretOnLeftTreeAt(left_tree.nodeByPath(nodepath), color);
+	}
+	
+	/**
+	 * Adds a caret at a leaf node on the left tree. An excpetion is thrown if the node is not a leaf
+	 * @param node the node of the left tree to append a caret to 
+	 * @param color the color to paint the node into (since it's not a leaf anymore)
+	 */
+	private void addCaretOnLeftTreeAt(TreeNode node, int color) throws TreeNodeException
+	{
+		checkMutable();
 		try
 		{
-			TreeNode node = left_tree.nodeByPath(nodepath);				
 		if (!node.isLeaf())
 		{
 			throw new TreeNodeException("The node you are trying to append the caret to is not a leaf node");
@@ -215,11 +252,7 @@ public class TreePair {
 	 */
 	private void addCaretAt(TreeNode node, int nodelabel) throws TreeNodeException
 	{
-		node.color = nodelabel;
-		TreeNode l = new TreeNode(node,0,true);
-		TreeNode r = new TreeNode(node,0,false);
-		node.left = l;
-		node.right = r;
+		node.addCaret(nodelabel);
 	}
 
 	/**
@@ -229,9 +262,7 @@ public class TreePair {
 	 */
 	private void removeCaretAt(TreeNode node) throws TreeNodeException
 	{
-		node.color = 0;
-		node.left = null;
-		node.right = null;
+		node.removeCaret();
 	}
 	
 	
@@ -266,12 +297,52 @@ public class TreePair {
 	}
 
 	
+	/**
+	 * Makes this tree pair immutable. The methods that change the pair throw an
+	 * exception from now on, and the trees and the permutation must not be
+	 * changed directly either. In return, the inverse of an immutable pair
+	 * (see {@link #inverseOf(TreePair)}) is a view that shares the trees with the pair,
+	 * and is computed only once.
+	 * <br>The pairs returned by compose() (and so by conjugate(), commutator() and power())
+	 * are already immutable.
+	 * <br>Use duplicate() to get a mutable copy.
+	 * @return this tree pair
+	 */
+	public TreePair freeze()
+	{
+		immutable = true;
+		permutation.freeze();
+		return this;
+	}
+	
+	/**
+	 * Tells whether this pair is immutable
+	 * @return true if the pair was frozen
+	 */
+	public boolean isImmutable()
+	{
+		return immutable;
+	}
+	
+	/**
+	 * Throws an exception if this pair may not be changed
+	 * @throws IllegalStateException if the pair is immutable
+	 */
+	private void checkMutable()
+	{
+		if (immutable)
+		{
+			throw new IllegalStateException("This tree pair is immutable; duplicate it to change it.");
+		}
+	}
+	
 	/**
 	 * Inverts this tree pair by switching the left and the right tree
 	 * and inverting the permutation
 	 */
 	private void invert()
 	{
+		checkMutable();
 		/* IMPORTANT!
 		 * You MUST invert the permutation whenever you swap the left and right trees
 		 */		
@@ -298,6 +369,7 @@ public class TreePair {
 	 */
 	public void extendLeftTree(int mindim, int mindepth) throws TreeNodeException
 	{
+		checkMutable();
 		int [] colcount = this.left_tree.getColorDepths();
 		int L=colcount.length-1;
 		while ((L>0)&&(colcount[L]==0)) {L--;}
@@ -305,7 +377,7 @@ public class TreePair {
 		int D = Math.max(left_tree.maxColorDepth(), mindepth);
 		int[] directive = new int[10];
 		for (int i=1;i<=L;i++) {directive[i]=D;}		
-		extendLeftTreeAt(left_tree.rootNode, directive);
+		extendLeftTreeAt(directive);
 	}
 
 	
@@ -317,42 +389,94 @@ public class TreePair {
 	 */
 	public void extendLeftTree(int[] colors) throws TreeNodeException
 	{
+		checkMutable();
 		int [] colcount = this.left_tree.getColorDepths();
 		int [] M = max(colcount, colors);		
-		extendLeftTreeAt(left_tree.rootNode, M);
+		extendLeftTreeAt(M);
 	}
 	
 	
 	/**
-	 * Extends the subtree at a given node so that each color appears at least
-	 * a certain amount of times
-	 * @param node the root of the subtree to expand at
+	 * Extends the left tree so that each color appears at least a certain amount of times
+	 * on the path to every leaf. The same carets are added under the image of each leaf in the right tree.
+	 * <br>
+	 * The leaves that need carets are listed first, and their images are found in one walk down
+	 * the right tree (see {@link NvTree#nodesBySuperPaths(SuperPath[])}). Under each such leaf,
+	 * the carets are added color by color, lowest color first.
 	 * @param colors array containing the minimum number of times each color should occur.
 	 * Value in colors[i] = #times color i should occur, for i>0.
 	 */
-	private void extendLeftTreeAt(TreeNode node, int[]colors) throws TreeNodeException
+	private void extendLeftTreeAt(int[]colors) throws TreeNodeException
 	{
 		colors[0]=0; //ignore color 0
-		int C = firstPositive(colors);
-		if (C>0)  //if we still have to add nodes of a certain color  
+		ArrayList<TreeNode> leaves = new ArrayList<TreeNode>();
+		ArrayList<SuperPath> paths = new ArrayList<SuperPath>();
+		LeafCursor C = left_tree.leafCursor();
+		while (C.next())
 		{
-			if (node.isLeaf())
-			{	
-				try{addCaretOnLeftTreeAt(node.path, C);}
-				catch(TreeNodeException e)
+			SuperPath P = C.getPath();
+			for (int i=1; i<NvTree.MAXCOL; i++)
+			{
+				if (P.getColLength(i)<colors[i])
 				{
-					throw new TreeNodeException(e.errorString);
+					leaves.add(C.getNode());
+					paths.add(P.intern());
+					break;
 				}
 			}
-			
-			int c = node.color;
-			int[] newcol = arrCopy(colors);
-			newcol[c]=newcol[c]-1;
-			extendLeftTreeAt(node.left, newcol);
-			extendLeftTreeAt(node.right, newcol);
+		}
+		SuperPath[] images = new SuperPath[paths.size()];
+		for (int j=0; j<images.length; j++)
+		{
+			images[j] = permutation.get(paths.get(j));
+			if (images[j]==null)
+			{
+				throw new TreeNodeException("Permutation does not contain the leaf "+paths.get(j));
+			}
+		}
+		TreeNode[] rnodes = right_tree.nodesBySuperPaths(images);
+		for (int j=0; j<images.length; j++)
+		{
+			SuperPath P = paths.get(j);
+			int[] need = new int[NvTree.MAXCOL];
+			for (int i=1; i<NvTree.MAXCOL; i++)
+			{
+				need[i] = Math.max(0, colors[i]-P.getColLength(i));
+			}
+			permutation.remove(P);
+			addCaretsAt(leaves.get(j), rnodes[j], new SuperPath(P), new SuperPath(images[j]), need);
 		}
 	}
 	
+	/**
+	 * Adds the same complete tree of carets under a leaf of the left tree and its image in the right tree,
+	 * and maps the new leaves to each other
+	 * @param L a leaf of the left tree
+	 * @param R its image in the right tree
+	 * @param LP the superpath of L
+	 * @param RP the superpath of R
+	 * @param need need[i] = number of carets of color i to add on each path
+	 */
+	private void addCaretsAt(TreeNode L, TreeNode R, SuperPath LP, SuperPath RP, int[] need) throws TreeNodeException
+	{
+		int c = firstPositive(need);
+		if (c<=0)
+		{
+			permutation.put(LP, RP);
+			return;
+		}
+		addCaretAt(L, c);
+		addCaretAt(R, c);
+		need[c]--;
+		SuperPath LL = new SuperPath(LP); LL.appendDown(c, true);
+		SuperPath RL = new SuperPath(RP); RL.appendDown(c, true);
+		addCaretsAt(L.left, R.left, LL, RL, need);
+		LP.appendDown(c, false);
+		RP.appendDown(c, false);
+		addCaretsAt(L.right, R.right, LP, RP, need);
+		need[c]++;
+	}
+	
 	
 	/**
 	 * Returns the largest integer in the array
@@ -444,6 +568,7 @@ public class TreePair {
 	 */
 	public void resetPermutation() throws TreeNodeException
 	{
+		checkMutable();
 		this.permutation.reset();
 	}
 
@@ -462,6 +587,7 @@ public class TreePair {
 	 */
 	public void setPermutation(TreePermutation permutation) throws TreeNodeException 
 	{
+		checkMutable();
 		/*
 		 * FIXME
 		 * check that the permutation's trees correspond to the pair's trees
@@ -475,11 +601,19 @@ public class TreePair {
 	
 	/**
 	 * Reduces the tree pair by removing exposed carets
-	 *
+	 * @throws IllegalStateException if the pair is immutable
 	 */
 	public void removeExposedCarets()
 	{
-		reduceLeftTreeAt(left_tree.rootNode);
+		checkMutable();
+		try
+		{
+			reduceLeftTreeAt(left_tree.rootNode, new SuperPath());
+		}
+		catch (TreeNodeException e)
+		{
+			throw new IllegalStateException("Corrupt tree: cannot build the superpaths of its nodes", e);
+		}
 	}
 	
 	
@@ -490,8 +624,10 @@ public class TreePair {
 	 * <br>
 	 * If you don't need a canonical representative, use a much faster removeExposedCarets.
 	 * <br>
-	 * In a canonical representative, the leaf-root paths are of smallest
-	 * length and are lexicographically smallest (among representative).
+	 * The blocks of the canonical representative depend only on the map. The trees are then
+	 * built from the blocks by {@link NvTree#fromPattern(java.util.Collection)}: each node is cut
+	 * along the highest color that no block inside it spans, so the carets of lower colors
+	 * end up closer to the leaves.
 	 * @return a new canonical treepair
 	 */
 	public TreePair reduce() throws TreeNodeException 
@@ -531,40 +667,99 @@ public class TreePair {
 	
 	
 	/**
-	 * TODO: there was a bug when calling T.reduce() instead of T = T.reduce() had bad TreePermutation.
-	 * Usage needs to be documented better, or the original treepair must not be touched.
-	 * --------------------------------------
 	 * Returns a new TreePair that is the canonical representative
-	 * of the map represented by this pair of trees.
+	 * of the map represented by this pair of trees. This pair is not changed.
 	 * @param mergeBlocks if set to false, the returned canonical treepair
 	 * is the pair in which the left pattern is the smallest grid.
 	 * <p>
 	 * If set to true, the unique smallest grid on the left is greedily reduced. 
+	 * If the greedy merges do not leave a pattern on both sides, the grid is kept.
+	 * <p>
+	 * The trees are built from the blocks as described in {@link #reduce()}.
 	 * @return a new canonical treepair
 	 */
 	public TreePair reduce(boolean mergeBlocks) throws TreeNodeException 
 	{
-		//TODO: check that this does not mess up the uniqueness. 
-		if (isMultiDimensional(this))
+		GridReducer G = new GridReducer(this);
+		G.reduceGrid();
+		HashMap<SuperPath, SuperPath> map = G.getMap();
+		NvTree Ltree = null;
+		NvTree Rtree = null;
+		if (mergeBlocks)
 		{
-			extendToLeftFlat();
+			ArrayList<GridReducer.Region> grid = G.getRegions();
+			G.mergeBlocks();
+			HashMap<SuperPath, SuperPath> merged = G.getMap();
+			try
+			{
+				Ltree = NvTree.fromPattern(merged.keySet());
+				Rtree = NvTree.fromPattern(merged.values());
+				map = merged;
+			}
+			catch (TreeNodeException e)
+			{
+				//greedy merging can leave a partition that is not a pattern;
+				//the grid depends only on the map, so keeping it stays canonical
+				map = GridReducer.getMap(grid);
+				Ltree = null;
+			}
+		}
+		if (Ltree==null)
+		{
+			Ltree = NvTree.fromPattern(map.keySet());
+			Rtree = NvTree.fromPattern(map.values());
 		}
-		HashMap<SuperPath, SuperPath> map = this.getPermutation().permutationMap;
-		reduceGrid(map);
-		if (mergeBlocks){ mergeBlocks(map);}
-		NvTree Ltree = NvTree.fromPattern(map.keySet());
-		NvTree Rtree = NvTree.fromPattern(map.values());
 		TreePermutation perm = new TreePermutation(Ltree,Rtree,map);
 		TreePair p = new TreePair(perm);
+		p.canonical = mergeBlocks;
 		return p;			
 	}		
 	
+	/**
+	 * Returns the fingerprint of the map represented by this pair: 
+	 * the fingerprint of the block map of its canonical form (see reduce()).
+	 * Pairs that represent the same map have the same fingerprint.
+	 * <br>
+	 * The fingerprint of an immutable pair is only computed once;
+	 * if the pair came from reduce(), it is not reduced again.
+	 * @return the fingerprint of the map
+	 */
+	public Fingerprint fingerprint() throws TreeNodeException
+	{
+		Fingerprint f = fingerprint;
+		if (f!=null)
+		{
+			return f;
+		}
+		TreePair T = (canonical && immutable) ? this : reduce();
+		f = Fingerprint.of(T.permutation.permutationMap);
+		if (immutable)
+		{
+			fingerprint = f;
+		}
+		return f;
+	}
+	
+	/**
+	 * Tells whether two pairs in canonical form (as returned by reduce()) represent the same map.
+	 * The block maps are only compared if the fingerprints match.
+	 * @param A a reduced tree pair
+	 * @param B another reduced tree pair
+	 * @return true if A and B have the same block map
+	 */
+	static boolean sameCanonicalForm(TreePair A, TreePair B) throws TreeNodeException
+	{
+		return A.fingerprint().equals(B.fingerprint()) 
+			&& A.permutation.permutationMap.equals(B.permutation.permutationMap);
+	}
+	
 	/**
 	 * Extends the left tree to a flat tree
 	 *
 	 */
 	public void extendToLeftFlat() throws TreeNodeException
 	{
+		checkMutable();
 		int[] Lcols = this.left_tree.getColorDepths();
 		extendLeftTree(Lcols);				
 	}
@@ -573,56 +768,20 @@ public class TreePair {
 	 * This operation reduces a grid of blocks to a supergrid (a less finer grid).
 	 * Since grid reductions commute, if you start from a grid representative,
 	 * you get a unque reduced grid.
-	 * @param map
+	 * <br>
+	 * The grid is halved along color c (starting with c=1) as long as every block 
+	 * has its sibling along c and each pair of siblings is mergeable; then the next color is tried.
+	 * The halving is done by a {@link GridReducer} whose cells are the blocks of the map.
+	 * @param map the Map between two patterns that defines a pattern pair; it is changed in place
 	 * @throws TreeNodeException
 	 */
 	public static void reduceGrid(Map<SuperPath, SuperPath>map) throws TreeNodeException
 	{
-		
-		int curcol = 1;		
-		while (curcol < NvTree.MAXCOL)
-		{
-			if (map.keySet().size() == 1) {return;}
-			ArrayList<SuperPath> blocks= new ArrayList<SuperPath>(map.keySet());
-			Collections.sort(blocks, new SuperPathComparator(curcol));
-			ArrayList<SuperPath> mergeables = new ArrayList<SuperPath>();		
-			boolean canmerge = true;
-			while (canmerge&&(blocks.size()>0))
-			{
-				SuperPath LL = blocks.get(0);			
-				SuperPath LR = blocks.get(1);
-				if ((LL.isAdjacentTo(LR)==curcol)&&(areMergeable(LL, LR, map))) //if L is adjacent along curcol
-				{				
-					blocks.remove(0);
-					blocks.remove(0);			//after the loop is done, if canmerge is true					
-					mergeables.add(LL);			//then mergables has all the blocks
-					mergeables.add(LR);			//and thus all the blocks can be merged along curcol
-				}
-				else {canmerge = false;}
-			}
-			if (canmerge)						
-			{
-				while (mergeables.size()>0)
-				{
-					SuperPath LL = mergeables.get(0);
-					SuperPath LR = mergeables.get(1);
-					SuperPath LM = new SuperPath(LL);
-					SuperPath RL = map.get(LL);		
-					SuperPath RM = new SuperPath(RL);
-					LM.goUp(curcol);	//this is the merge of LL and LR
-					RM.goUp(curcol);	//this is the merge of RM and RR			
-					map.remove(LL);
-					map.remove(LR);
-					map.put(LM, RM);
-					mergeables.remove(0);
-					mergeables.remove(0);
-				}
-			}
-			else
-			{
-				curcol++;
-			}
-		}
+		if (map.size() < 2) {return;}
+		GridReducer G = blockReducer(map);
+		G.reduceGrid();
+		map.clear();
+		map.putAll(G.getMap());
 	}
 	
 	
@@ -632,67 +791,35 @@ public class TreePair {
 	/**
 	 * This code merges the blocks in a pattern pair color-greedily:
 	 * it merges the blocks along the least dimension that's available. 
-	 * I.e., it merges blocks along color 1 whenever possible; if not,
-	 * tries color 2, then 3, etc. After each merge, the blocks are re-examined.
+	 * I.e., it merges all the mergeable pairs along color 1; if there are none,
+	 * tries color 2, then 3, etc. After each round of merges, the search starts again from color 1.
+	 * The merging is done by a {@link GridReducer} whose cells are the blocks of the map.
+	 * Since all the mergeable pairs along one color are merged at once, the result does not
+	 * depend on the order of the blocks in the map.
 	 * NOTE that this may or may not yield a unque pattern, even when going down
 	 * from a rectangular or square grid. We didn't prove yet that the algorithm will yield
-	 * the same result when going down from finer / different grids. Also, the proof
-	 * (and the algorithm) depends on how the SuperPathComparator is implemented
-	 * (i.e., what order the blocks have when sorted); it REQUIRES that blocks
-	 * adjacent along color i be adjacent in the list sort with SuperPathComparator(i).
-	 * TODO
-	 * -Optimize
-	 * -Merge code with NvTree.fromPattern()
-	 * @param  map the Map between two patterns that defines a pattern pair
+	 * the same result when going down from finer / different grids.
+	 * @param  map the Map between two patterns that defines a pattern pair; it is changed in place
 	 * @throws TreeNodeException
 	 */
 	public static void mergeBlocks(Map<SuperPath, SuperPath>map) throws TreeNodeException	
 	{
-		ArrayList<SuperPath> blocks= new ArrayList<SuperPath>(map.keySet());
-		int i=0;
-		int curcol = 1;		
-		boolean found = false;
-		boolean searchmore=true;
-		if (blocks.size() < 2) {searchmore = false;}
-		Collections.sort(blocks, new SuperPathComparator(curcol));
-		while (searchmore)	
-		{	 
-			SuperPath LL = blocks.get(i);			
-			SuperPath LR = blocks.get(i+1);
-			if ((LL.isAdjacentTo(LR)==curcol)&&(areMergeable(LL, LR, map))) //if L is adjacent along curcol
-			{				
-				found = true;				  		//..then we have found a mergeable pair
-				SuperPath LM = new SuperPath(LL);
-				SuperPath RL = map.get(LL);		
-				SuperPath RM = new SuperPath(RL);
-				LM.goUp(curcol);	//this is the merge of LL and LR
-				RM.goUp(curcol);				
-				map.remove(LL);
-				map.remove(LR);
-				map.put(LM, RM);
-				blocks.remove(LL);
-				blocks.remove(LR);
-				blocks.add(LM);
-				Collections.sort(blocks, new SuperPathComparator(curcol));				
-			}
-			if (i<blocks.size()-2){i++;} else 
-			{				
-				if (!found)
-				{
-					curcol++;
-					if (curcol<NvTree.MAXCOL)
-					{
-						Collections.sort(blocks, new SuperPathComparator(curcol));	
-					} 
-					else {searchmore=false;}//if not found anything in all colors, we're done 
-					
-				}
-				else {curcol = 1; i=0;} //if a merge was made, we start all over.
-				found = false;
-				i=0;
-			}
-			if (blocks.size()==1) {searchmore = false;} //maybe we just merged everyting and got the identity
-		}
+		if (map.size() < 2) {return;}
+		GridReducer G = blockReducer(map);
+		G.mergeBlocks();
+		map.clear();
+		map.putAll(G.getMap());
+	}
+	
+	/**
+	 * Sets up a {@link GridReducer} on the blocks of a pattern pair, each block being one cell
+	 * @param map the Map between two patterns
+	 */
+	private static GridReducer blockReducer(Map<SuperPath, SuperPath>map) throws TreeNodeException
+	{
+		NvTree Ltree = NvTree.fromPattern(map.keySet());
+		NvTree Rtree = NvTree.fromPattern(map.values());
+		return new GridReducer(new TreePair(new TreePermutation(Ltree, Rtree, map)), false);
 	}
 	
 	
@@ -706,19 +833,28 @@ public class TreePair {
 	 * @return true if you can merge A and B
 	 */
 	public static boolean areMergeable(SuperPath A, SuperPath B, Map<SuperPath, SuperPath> map) throws TreeNodeException
+	{
+		return areMergeable(A, B, map.get(A), map.get(B));
+	}
+	
+	/**
+	 * Given two blocks A and B and their images, tells whether they can be merged into one
+	 * @param A first block
+	 * @param B second block
+	 * @param RA the image of A
+	 * @param RB the image of B
+	 * @return true if you can merge A and B
+	 */
+	static boolean areMergeable(SuperPath A, SuperPath B, SuperPath RA, SuperPath RB)
 	{
 		int curcol = A.isAdjacentTo(B);
 		if ((curcol>0)&&(curcol < NvTree.MAXCOL)) //if A is adjacent to B
 		{
-			SuperPath RA = map.get(A);			
-			SuperPath RB = map.get(B);
 			if (RA.isAdjacentTo(RB)==curcol) //if the blocks that A and B map to are adjacent...					
 			{
-				SuperPathComparator comp = new SuperPathComparator(curcol);
-				if (comp.compare(A, B)==comp.compare(RA, RB))   //...and the order (left/right top/bottom etc.) is preserved..
-				{
-					return true;
-				}
+				int last = A.getColLength(curcol)-1;
+				int Rlast = RA.getColLength(curcol)-1;
+				return (A.getBit(curcol, last)==RA.getBit(curcol, Rlast));   //...and the order (left/right top/bottom etc.) is preserved
 			}
 		}
 		return false;
@@ -732,14 +868,20 @@ public class TreePair {
 	/**
 	 * Reduces a subtree of a left tree
 	 * @param node the root of the subtree of the left tree
+	 * @param path the superpath of node; it is extended while walking down the subtree,
+	 * and is the same again on return
 	 */
-	private void reduceLeftTreeAt(TreeNode node)
+	private void reduceLeftTreeAt(TreeNode node, SuperPath path) throws TreeNodeException
 	{
 		 if (!node.isLeaf())
 		 {
-			 reduceLeftTreeAt(node.left);
-			 reduceLeftTreeAt(node.right);
-			 removeCaretOnLeftTreeAt(node);
+			 path.appendDown(node.color, true);
+			 reduceLeftTreeAt(node.left, path);
+			 path.goUp(node.color);
+			 path.appendDown(node.color, false);
+			 reduceLeftTreeAt(node.right, path);
+			 path.goUp(node.color);
+			 removeCaretOnLeftTreeAt(node, path);
 		 }
 	}
 	
@@ -751,36 +893,36 @@ public class TreePair {
 	 */
 	public boolean removeCaretOnLeftTreeAt(String path) throws TreeNodeException
 	{
+		checkMutable();
 		TreeNode node = left_tree.nodeByPath(path);
-		return removeCaretOnLeftTreeAt(node);
+		return removeCaretOnLeftTreeAt(node, node.getSuperpath());
 	}
 	
 	
 	/**
 	 * Attempts to reduce an exposed caret. 
 	 * @param node supposed exposed caret
+	 * @param path the superpath of node
 	 * @return true if the node was an exposed caret and was reduced; false otherwise 
 	 */
-	private boolean removeCaretOnLeftTreeAt(TreeNode node)
+	private boolean removeCaretOnLeftTreeAt(TreeNode node, SuperPath path)
 	{
-		if (!isExposedLeftCaret(node))
-		{
-			return false;
-		}
-		else
 		try 
 		{
-			SuperPath LLpath = node.left.getSuperpath();
-			SuperPath LRpath = node.right.getSuperpath();
-			SuperPath RLpath = permutation.get(LLpath);
-			TreeNode RLnode = right_tree.nodeBySuperPath(RLpath);
-			TreeNode R = RLnode.parent; //supposed common parent of RL and RR
-			
+			TreeNode R = exposedImageOf(node, path);
+			if (R==null)
+			{
+				return false;
+			}
+			SuperPath LLpath = childPath(path, node.color, true);
+			SuperPath LRpath = childPath(path, node.color, false);
+			SuperPath Rpath = new SuperPath(permutation.get(LLpath));
+			Rpath.goUp(R.color);
 			
 			//fix permuation
 			permutation.remove(LLpath);
 			permutation.remove(LRpath);
-			permutation.put(node.getSuperpath(), R.getSuperpath());
+			permutation.put(path, Rpath);
 			
 			//fix tree
 			removeCaretAt(node);
@@ -805,47 +947,47 @@ public class TreePair {
 	public boolean isExposedLeftCaret(String path) throws TreeNodeException
 	{
 		TreeNode node = left_tree.nodeByPath(path);
-		return isExposedLeftCaret(node);
+		return exposedImageOf(node, node.getSuperpath())!=null;
 	}
 	
 	
 	/**
-	 * Tells whether the node is an exposed left caret
+	 * Finds the caret of the right tree that an exposed left caret maps to
 	 * @param node node on the left tree
-	 * @return true if the caret maps linearly into other caret, i.e.
-	 * <br> 1 2 goes to  1 2
+	 * @param path the superpath of node
+	 * @return the caret of the right tree that the children of node map to, in order
+	 * and with the same color, if node is an exposed caret; null otherwise
 	 */
-	private boolean isExposedLeftCaret(TreeNode node)
+	private TreeNode exposedImageOf(TreeNode node, SuperPath path) throws TreeNodeException
 	{
-		if (node.isLeaf())
+		if (node.isLeaf() || !node.left.isLeaf() || !node.right.isLeaf())
 		{
-			return false;
+			return null;
 		}
-		else if (node.left.isLeaf()&&node.right.isLeaf())
-		try
-		{
-			SuperPath LLpath = node.left.getSuperpath();     //Paths of LL and LR, the left and 
-			SuperPath LRpath = node.right.getSuperpath();	 //right children of supposed caret
-			SuperPath RLpath = permutation.get(LLpath);
-			SuperPath RRpath = permutation.get(LRpath);
-			TreeNode RLnode = right_tree.nodeBySuperPath(RLpath); //RL and RR are the images of LL and LR
-			TreeNode RRnode = right_tree.nodeBySuperPath(RRpath);
-			TreeNode R = RLnode.parent; //supposed common parent of RL and RR
-			
-			if ((R.left!=RLnode)||(R.right!=RRnode)) //check if they get mapped to the same node, i.e form a caret
-			{
-				return false;
-			}
-			else
-			{
-				return (R.color == node.color); //return true if the carets are of the same color 
-			}
-		}
-		catch(TreeNodeException e)
+		SuperPath RLpath = permutation.get(childPath(path, node.color, true));   //images of LL and LR, the left and 
+		SuperPath RRpath = permutation.get(childPath(path, node.color, false));  //right children of supposed caret
+		TreeNode RLnode = right_tree.nodeBySuperPath(RLpath);
+		TreeNode R = RLnode.parent; //supposed common parent of RL and RR
+		
+		if ((R==null)||(R.left!=RLnode)||(R.right!=right_tree.nodeBySuperPath(RRpath))) //check if they get mapped to the same node, i.e form a caret
 		{
-			JOptionPane.showMessageDialog(null, "Unknown error during tree reduction: \n"+e.errorString);
+			return null;
 		}
-		return false;
+		return (R.color == node.color) ? R : null; //the carets must be of the same color 
+	}
+	
+	/**
+	 * Returns the superpath of a child of a node
+	 * @param path the superpath of the node
+	 * @param color the color of the node
+	 * @param left true for the left child, false for the right one
+	 * @return a new superpath
+	 */
+	private static SuperPath childPath(SuperPath path, int color, boolean left) throws TreeNodeException
+	{
+		SuperPath P = new SuperPath(path);
+		P.appendDown(color, left);
+		return P;
 	}
 
 	
@@ -878,10 +1020,8 @@ public class TreePair {
 			lastAddedWords.clear();
 			for (TreePair w: newWords){
 				boolean isNew = true;
-				TreePair wInv = inverseOf(w);							
 				for (TreePair wOld: currentWords){
-					TreePair t = compose(wOld, wInv);
-					if (t.numBlocks() == 1) // <=> identity
+					if (areEqual(wOld, w))
 					{
 						isNew = false;
 						break;
@@ -906,7 +1046,9 @@ public class TreePair {
 	/**
 	 * TODO: make up additional correctness checks
 	 * TODO: check if this version is any faster than the one above.
-	 * This one computes the canonical form for each element.
+	 * This one computes the canonical form for each element, 
+	 * and tells the elements apart by the fingerprints of their canonical forms.
+	 * The words are expanded in parallel by a {@link GrowthEngine}.
 	 * Computes the growth function \gamma(k) of the semigroup generated by S for k=1..n
 	 * @param S a generating set (a collection of TreePairs representing functions in the group)
 	 * @param n the value of the growth function to compute up to
@@ -916,42 +1058,14 @@ public class TreePair {
 	 * @throws TreeNodeException
 	 */
 	public static int[] growth(ArrayList<TreePair> S, int n) throws TreeNodeException{
-		try{ 
-		int[] ans = new int[n+1];
-		ans[0] = 1;
-		HashMap<String, TreePair> currentWords = new HashMap<String, TreePair>();
-		HashMap<String, TreePair> lastAddedWords = new HashMap<String, TreePair>();
-		HashMap<String, TreePair> newWords = new HashMap<String, TreePair>();
-		
-		TreePair id = new TreePair("0,0,1");
-		currentWords.put(id.toString(), id);
-		lastAddedWords.put(id.toString(), id);
-		for (int i=1; i<=n; i++){
-			newWords.clear();
-			for (TreePair w : lastAddedWords.values())
-			{
-				for (TreePair g : S)
-				{
-					TreePair wNew = compose(w, g);
-					wNew = wNew.reduce();
-					newWords.put(wNew.toString(), wNew);
-				}
-			}
-			lastAddedWords.clear();
-			for (String wStr: newWords.keySet()){
-				if (!currentWords.containsKey(wStr))
-				{
-					currentWords.put(wStr, newWords.get(wStr));
-					lastAddedWords.put(wStr, newWords.get(wStr));
-				}
-			}
-			ans[i] = currentWords.size();
-		}
-		
-		return ans;
+		GrowthEngine engine = new GrowthEngine(S);
+		try
+		{
+			return engine.growth(n);
 		}
-		catch (TreeNodeException e){
-			throw new TreeNodeException("Error occurred during growth computation: \n" + e.errorString);
+		finally
+		{
+			engine.close();
 		}
 	}
 	
@@ -960,43 +1074,39 @@ public class TreePair {
 	/**
 	 * Returns a TreePair representing the same map as A, but with its left pattern being a common
 	 * refinement of A's left pattern and pattern represented by T 
+	 * <br>
+	 * The left tree of A and T are walked down together to the blocks of their common refinement
+	 * (see {@link LeafPairCursor}); the work is proportional to the size of the refinement
+	 * times the depth of the trees.
 	 * @param A a tree pair
 	 * @param T an NvTree (representing a pattern)
 	 * @return a tree pair which represents the same map as A, and whose left pattern is a refinement of T
 	 */
 	public static TreePair refineLeftTreeTo(TreePair A, NvTree T) throws TreeNodeException{
-		ArrayList<SuperPath> ALTblocks = A.left_tree.detailedDFS();
-		ArrayList<SuperPath> Tblocks = T.detailedDFS();
-		
 		ArrayList<SuperPath> newLTBlocks = new ArrayList<SuperPath>();
 		ArrayList<SuperPath> newRTBlocks = new ArrayList<SuperPath>();
 		HashMap<SuperPath, SuperPath> map = new HashMap<SuperPath, SuperPath>();
 		try{
-			for (SuperPath LPath : ALTblocks){
-				for (SuperPath refPath : Tblocks){
-					if (SuperPath.areIntersecting(LPath, refPath)){
-						SuperPath RPath = A.permutation.get(LPath);
-						String[] newLCP = new String[NvTree.MAXCOL];
-						String[] newRCP = new String[NvTree.MAXCOL];					
-						for (int i=0; i<NvTree.MAXCOL; i++){
-							String ALTP = LPath.getColPath(i);
-							String ARTP = RPath.getColPath(i);
-							String refP = refPath.getColPath(i);
-							String suffix = "";
-							if(refP.length()> ALTP.length()){
-								suffix = refP.substring(ALTP.length());
-							}
-							newLCP[i] = ALTP + suffix;
-							newRCP[i] = ARTP + suffix;
-						}
-						SuperPath newLP = new SuperPath(newLCP);
-						SuperPath newRP = new SuperPath(newRCP);
-						newLTBlocks.add(newLP);
-						newRTBlocks.add(newRP);
-						map.put(newLP, newRP);
-					}				
+			LeafPairCursor C = new LeafPairCursor(A.left_tree, T);
+			while (C.next())
+			{
+				SuperPath aPath = C.getFirstPath();
+				SuperPath tPath = C.getSecondPath();
+				//the intersection of the two blocks is A's block cut further as in T
+				SuperPath RPath = A.permutation.get(aPath);
+				SuperPath newLP = new SuperPath(aPath);
+				SuperPath newRP = new SuperPath(RPath);
+				for (int i=1; i<NvTree.MAXCOL; i++){
+					for (int j=aPath.getColLength(i); j<tPath.getColLength(i); j++){
+						boolean goLeft = (tPath.getBit(i, j)==0);
+						newLP.appendDown(i, goLeft);
+						newRP.appendDown(i, goLeft);
+					}
 				}
-			}		
+				newLTBlocks.add(newLP);
+				newRTBlocks.add(newRP);
+				map.put(newLP.intern(), newRP.intern());
+			}
 			
 			NvTree newLT = NvTree.fromPattern(newLTBlocks);
 			NvTree newRT = NvTree.fromPattern(newRTBlocks);
@@ -1045,6 +1155,9 @@ public class TreePair {
 	 * @return reduced tree pair C such that, as a function, C(x) = B(A(x)) (i.e. with right action, C=BA).
 	 * <br>
 	 * NOTE: the result is not reduced. Reduce the output in other methods that call this (order, growth, etc.) 
+	 * <br>
+	 * The result is immutable, so its inverse is a view made once (see {@link #inverseOf(TreePair)}).
+	 * Use duplicate() to change it.
 	 */
 	public static TreePair compose(TreePair A, TreePair B) throws TreeNodeException
 	{
@@ -1055,46 +1168,117 @@ public class TreePair {
 		TreePermutation perm = TreePermutation.multiply(newA.getPermutation(), newB.getPermutation());		
 		TreePair result = new TreePair(perm);
 		result.removeExposedCarets();
-		return result;
+		return result.freeze();
+	}
+	
+	/**
+	 * Tells whether this tree pair represents the identity, without composing anything.
+	 * <br>
+	 * The map of a pair is the identity exactly when every block of the left tree is mapped onto itself,
+	 * so the left tree is walked leaf by leaf, stopping at the first block moved.
+	 * @return true if this pair is the identity
+	 */
+	public boolean isIdentity() throws TreeNodeException
+	{
+		LeafCursor C = left_tree.leafCursor();
+		while (C.next())
+		{
+			if (!C.getPath().equals(permutation.get(C.getPath())))
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Tells whether two tree pairs represent the same element, without composing them.
+	 * <br>
+	 * The left trees of A and B are walked together down to the blocks of their common refinement
+	 * (see {@link LeafPairCursor}), and the images of each such block under A and B are compared.
+	 * The walk stops at the first block with different images.
+	 * @param A a tree pair
+	 * @param B another tree pair
+	 * @return true if A and B are the same map
+	 */
+	public static boolean areEqual(TreePair A, TreePair B) throws TreeNodeException
+	{
+		LeafPairCursor C = new LeafPairCursor(A.left_tree, B.left_tree);
+		while (C.next())
+		{
+			SuperPath aPath = C.getFirstPath();
+			SuperPath bPath = C.getSecondPath();
+			//compare the images of the intersection of the two blocks
+			SuperPath imageA = new SuperPath(A.permutation.get(aPath));
+			SuperPath imageB = new SuperPath(B.permutation.get(bPath));
+			for (int i=1; i<NvTree.MAXCOL; i++){
+				for (int j=aPath.getColLength(i); j<bPath.getColLength(i); j++){
+					imageA.appendDown(i, bPath.getBit(i, j)==0);
+				}
+				for (int j=bPath.getColLength(i); j<aPath.getColLength(i); j++){
+					imageB.appendDown(i, aPath.getBit(i, j)==0);
+				}
+			}
+			if (!imageA.equals(imageB))
+			{
+				return false;
+			}
+		}
+		return true;
 	}
 	
 	
 	/**
 	 * Returns a duplicate of this tree pair
+	 * <br>The trees and the permutation map are copied directly, without going through the string form.
 	 * @return a deep copy of the tree pair
 	 */
 	public TreePair duplicate() throws TreeNodeException
 	{
-		return new TreePair(left_tree.toString()+","+right_tree.toString()+","+permutation.toString());
+		NvTree left = left_tree.duplicate();
+		NvTree right = right_tree.duplicate();
+		return new TreePair(new TreePermutation(permutation, left, right));
 	}
 	
 	/**
-	 * Raises a tree pair to a power (repeatedly multiplies by itself n times)
+	 * Raises a tree pair to a power, by repeated squaring (see {@link PowerEngine})
+	 * <br>If A is immutable, its engine is kept with it, so the squares computed
+	 * for one power are reused by the next.
 	 * @param A a tree pair to raise to a power
-	 * @param n power to raise A to; must be a positive integer 
-	 * @return A*A*A*...*A (n times)
-	 * @throws an exception is thrown if $n$ is not a positive integer.
+	 * @param n power to raise A to; any integer 
+	 * @return A*A*A*...*A (n times) for positive n, the identity for n=0,
+	 * and the (-n)'th power of the inverse of A for negative n
 	 */
 	public static TreePair power(TreePair A, int n) throws TreeNodeException
 	{
-		TreePair a = A.duplicate();		//these lines implement negaive powers
-		if (n<0)						//A^-n = (a=inverse of A)^n
-		{
-			a.invert();
-			n = -n;
-		}
-		TreePair ans = new TreePair("0,0,1");
-		for (int i=0;i<n;i++)
+		return powerEngine(A).power(n);
+	}
+	
+	/**
+	 * Returns the power engine of a tree pair: the one kept with A if A is immutable, 
+	 * a new one otherwise
+	 * @param A a tree pair
+	 * @return an engine that raises A to powers
+	 */
+	static PowerEngine powerEngine(TreePair A) throws TreeNodeException
+	{
+		PowerEngine engine = A.powers;
+		if (engine==null)
 		{
-			ans = compose(ans, a);
+			engine = new PowerEngine(A);
+			if (A.immutable)
+			{
+				A.powers = engine;
+			}
 		}
-		return ans;
+		return engine;
 	}
 	
 	/**
 	 * Tells whether the order of an element does not exceed a certain number.
 	 * <br>
-	 * The method calculates A^1, A^2, A^3, ... A^maxorder and stops when an element is 
+	 * The order is first looked for with {@link PairDynamics}; only if that gives up, 
+	 * the method calculates A^1, A^2, A^3, ... A^maxorder and stops when an element is 
 	 * equal to the identity.  
 	 * @param A a treepair to get the order for
 	 * @param maxorder maximum order to go to
@@ -1102,23 +1286,20 @@ public class TreePair {
 	 */
 	public static int order(TreePair A, int maxorder) throws TreeNodeException
 	{
-		if (maxorder>0)
+		if (maxorder<=0)
+		{
+			throw new TreeNodeException("You specified an invalid Maximum Order: "+maxorder);
+		}
+		long order = new PairDynamics(A).getOrder();
+		if (order==PairDynamics.INFINITE)
 		{
-			TreePair ans = new TreePair("0,0,1");		
-			for (int i=0;i<maxorder;i++)
-			{				
-				ans = compose(ans, A);
-				if (ans.numBlocks()==1)
-				{
-					return (i+1);
-				}
-			}
 			return -1;
 		}
-		else
+		if (order>0)
 		{
-			throw new TreeNodeException("You specified an invalid Maximum Order: "+maxorder);
-		}		
+			return (order<=maxorder) ? (int) order : -1;
+		}
+		return powerEngine(A).findOrder(maxorder);
 	}
 	
 	/**
@@ -1178,11 +1359,25 @@ public class TreePair {
 
 	/**
 	 * Returns a treepair corresponding to the inverse of a map defined by a given treepair
+	 * <br>If A is immutable, the inverse is an immutable view of A with the trees swapped;
+	 * it is made once and then returned in constant time. Otherwise it is a new mutable pair. 
 	 * @param A a tree pair 
 	 * @return A^-1
 	 */
 	public static TreePair inverseOf(TreePair A) throws TreeNodeException 
 	{
+			if (A.immutable)
+			{
+				TreePair B = A.inverse;
+				if (B == null)
+				{
+					B = new TreePair(A.permutation.inverseView());
+					B.immutable = true;
+					B.inverse = A;
+					A.inverse = B;
+				}
+				return B;
+			}
 			TreePair B = A.duplicate();
 			B.invert();
 			return B;
@@ -2,7 +2,6 @@ package nvTrees;
 import java.awt.Font;
 import java.awt.FontMetrics;
 import java.awt.Graphics;
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -187,38 +186,50 @@ public class TreePairDrawer implements Drawable{
 	public void drawPatternsAt(Graphics G, int LX0, int LY0, int RX0, int RY0, int width)
 	{
 		TreePermutation perm = this.pair.getPermutation();
-		ArrayList<SuperPath> left = pair.left_tree.detailedDFS();
-		ArrayList<SuperPath> right = pair.right_tree.detailedDFS();
 		HashMap<SuperPath, String> leftLabels = new HashMap<SuperPath, String>();
 		HashMap<SuperPath, String> rightLabels = new HashMap<SuperPath, String>();
-		int cur_label = 1;
-		for (SuperPath L:left)
+		try
 		{
-			SuperPath R = perm.get(L);
-			leftLabels.put(L, ""+cur_label);
-			rightLabels.put(R, ""+cur_label);
-			cur_label++;
+			LeafCursor C = pair.left_tree.leafCursor();
+			while (C.next())
+			{
+				SuperPath L = C.getPath().intern();
+				String label = ""+(C.getIndex()+1);
+				leftLabels.put(L, label);
+				rightLabels.put(perm.get(L), label);
+			}
 		}
-		drawPatternAt(G, left, leftLabels, LX0, LY0, width);
-		drawPatternAt(G, right, rightLabels, RX0, RY0, width);
+		catch (TreeNodeException e)
+		{
+			JOptionPane.showMessageDialog(null, "Unknown error occurred during DFS: \n "+e.errorString);
+		}
+		drawPatternAt(G, leftLabels.keySet(), leftLabels, LX0, LY0, width);
+		drawPatternAt(G, rightLabels.keySet(), rightLabels, RX0, RY0, width);
 	}
 	
 	public void drawRectDiagramAt(Graphics G, int X0, int Y0, int width, int height) 
 	{
 		int col = pair.left_tree.rootNode.color;
 		TreePermutation perm = this.pair.getPermutation();		
-		ArrayList<SuperPath> left = pair.left_tree.detailedDFS();
-		
-		for (SuperPath L:left)
+		try
+		{
+			LeafCursor C = pair.left_tree.leafCursor();
+			while (C.next())
+			{
+				SuperPath L = C.getPath();
+				SuperPath R = perm.get(L);
+				int XL = (int)(X0 + width * L.getOffset(col));
+				int XR = (int)(X0 + width * R.getOffset(col));
+				int WL = (int) (width * L.getWidth(col));
+				int WR = (int) (width * R.getWidth(col));
+				int [] x = {XL, XL+WL, XR+WR, XR};
+				int [] y = {Y0, Y0, Y0+height, Y0+height};
+				G.drawPolygon(x, y, 4);
+			}
+		}
+		catch (TreeNodeException e)
 		{
-			SuperPath R = perm.get(L);
-			int XL = (int)(X0 + width * L.getOffset(col));
-			int XR = (int)(X0 + width * R.getOffset(col));
-			int WL = (int) (width * L.getWidth(col));
-			int WR = (int) (width * R.getWidth(col));
-			int [] x = {XL, XL+WL, XR+WR, XR};
-			int [] y = {Y0, Y0, Y0+height, Y0+height};
-			G.drawPolygon(x, y, 4);
+			JOptionPane.showMessageDialog(null, "Unknown error occurred during DFS: \n "+e.errorString);
 		}
 	}
 	
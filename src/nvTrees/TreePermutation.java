@@ -1,6 +1,7 @@
 package nvTrees;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
@@ -35,38 +36,158 @@ public class TreePermutation {
 	 */
 	public NvTree right_tree;
 	
+	/**
+	 * Set to true once the permutation is frozen (made read-only); see {@link #freeze()}
+	 */
+	private boolean frozen = false;
 	
+	/**
+	 * The inverse of a frozen permutation, once it was asked for
+	 */
+	private volatile TreePermutation inverse = null;
 	
 	/**
-	 * Returns the permutation of tree leaves stored in permutationMap as an array
-	 * <br>(For a tree pair with n leaves, when leaves are traverserd left-to-right and labeled 1..n, the
-	 * map is given as a pertmutation of 1..n).
-	 * @return array containg the permutation of 1..n 
+	 * The permutation as leaf numbers, built from permutationMap when first needed
+	 * and dropped whenever the permutation is changed through put(), remove(), reset() or invert()
 	 */
-	public int[] toArray() throws TreeNodeException
+	private volatile LeafIndex index = null;
+	
+	/**
+	 * The permutation in terms of leaf numbers: the leaves of each tree are numbered 
+	 * 0..n-1 in DFS order, and the two int arrays give the map and its inverse.
+	 * Instances are never changed, so they can be shared between permutations
+	 * with the same trees.
+	 */
+	private static final class LeafIndex
 	{
-		try
+		/**
+		 * The leaves of the left tree in DFS order
+		 */
+		final SuperPath[] leftLeaves;
+		
+		/**
+		 * The leaves of the right tree in DFS order
+		 */
+		final SuperPath[] rightLeaves;
+		
+		/**
+		 * leftToRight[i] = the number of the right leaf that left leaf i maps to
+		 */
+		final int[] leftToRight;
+		
+		/**
+		 * rightToLeft[j] = the number of the left leaf that maps to right leaf j
+		 */
+		final int[] rightToLeft;
+		
+		LeafIndex(SuperPath[] leftLeaves, SuperPath[] rightLeaves, int[] leftToRight, int[] rightToLeft)
+		{
+			this.leftLeaves = leftLeaves;
+			this.rightLeaves = rightLeaves;
+			this.leftToRight = leftToRight;
+			this.rightToLeft = rightToLeft;
+		}
+		
+		/**
+		 * Builds the leaf numbering of a permutation map
+		 * @param L leaves of the left tree in DFS order
+		 * @param R leaves of the right tree in DFS order
+		 * @param map the permutation map
+		 * @return the leaf index
+		 * @throws TreeNodeException if the map is not a bijection between the leaves
+		 */
+		static LeafIndex of(SuperPath[] L, SuperPath[] R, Map<SuperPath, SuperPath> map) throws TreeNodeException
 		{
-			int[] ans = new int[this.permutationMap.size()];
-			ArrayList<SuperPath>left_leaves = left_tree.detailedDFS();
-			ArrayList<SuperPath>right_leaves = right_tree.detailedDFS();
-			for (int i=0;i<ans.length;i++)
+			int n = L.length;
+			if ((R.length!=n)||(map.size()!=n))
 			{
-				SuperPath left_leaf = left_leaves.get(i);
-				SuperPath right_leaf=permutationMap.get(left_leaf);
-				int index = right_leaves.indexOf(right_leaf);
-				if (index < 0)
+				throw new TreeNodeException("Permutation error: "+map.size()+" leaf pairs for trees with "+n+" and "+R.length+" leaves");
+			}
+			HashMap<SuperPath, Integer> rightIndex = new HashMap<SuperPath, Integer>(2*n);
+			for (int j=0;j<n;j++)
+			{
+				rightIndex.put(R[j], j);
+			}
+			int[] l2r = new int[n];
+			int[] r2l = new int[n];
+			Arrays.fill(r2l, -1);
+			for (int i=0;i<n;i++)
+			{
+				SuperPath left_leaf = L[i];
+				SuperPath right_leaf = map.get(left_leaf);
+				Integer j = (right_leaf==null) ? null : rightIndex.get(right_leaf);
+				if ((j==null)||(r2l[j]>=0))
 				{
 					throw new TreeNodeException("Permutation error: the leaf \n"+left_leaf+" has no match");
 				}
-				ans[index]=i+1;
+				l2r[i] = j;
+				r2l[j] = i;
 			}
-			return ans;
+			return new LeafIndex(L, R, l2r, r2l);
+		}
+		
+		/**
+		 * Returns the leaf index of the inverse permutation
+		 * @return the same data read in the other direction
+		 */
+		LeafIndex inverse()
+		{
+			return new LeafIndex(rightLeaves, leftLeaves, rightToLeft, leftToRight);
 		}
-		catch(ArrayIndexOutOfBoundsException e)
+	}
+	
+	/**
+	 * Returns the leaf numbering of this permutation, building it if needed
+	 * @return the leaf index
+	 */
+	private LeafIndex leafIndex() throws TreeNodeException
+	{
+		LeafIndex I = index;
+		if (I == null)
 		{
-				throw new TreeNodeException("Error trying to compute permutation as array. Message: \n"+e.getMessage());
+			I = LeafIndex.of(left_tree.leafPaths(), right_tree.leafPaths(), permutationMap);
+			index = I;
 		}
+		return I;
+	}
+	
+	/**
+	 * Returns the number of the right leaf that a left leaf maps to
+	 * (leaves are numbered 0..n-1 in DFS order)
+	 * @param leftLeaf the number of a leaf in the left tree
+	 * @return the number of its image in the right tree
+	 */
+	public int imageOf(int leftLeaf) throws TreeNodeException
+	{
+		return leafIndex().leftToRight[leftLeaf];
+	}
+	
+	/**
+	 * Returns the number of the left leaf that maps to a right leaf
+	 * (leaves are numbered 0..n-1 in DFS order)
+	 * @param rightLeaf the number of a leaf in the right tree
+	 * @return the number of its preimage in the left tree
+	 */
+	public int preimageOf(int rightLeaf) throws TreeNodeException
+	{
+		return leafIndex().rightToLeft[rightLeaf];
+	}
+	
+	/**
+	 * Returns the permutation of tree leaves stored in permutationMap as an array
+	 * <br>(For a tree pair with n leaves, when leaves are traverserd left-to-right and labeled 1..n, the
+	 * map is given as a pertmutation of 1..n).
+	 * @return array containg the permutation of 1..n 
+	 */
+	public int[] toArray() throws TreeNodeException
+	{
+		int[] r2l = leafIndex().rightToLeft;
+		int[] ans = new int[r2l.length];
+		for (int j=0;j<ans.length;j++)
+		{
+			ans[j] = r2l[j]+1;
+		}
+		return ans;
 	}
 
 	
@@ -170,8 +291,11 @@ public class TreePermutation {
 		{
 			throw new TreeNodeException("Wrong amount of numbers in permutation! Must be "+n+", you provided "+permutation.length);
 		}
-		ArrayList<SuperPath>left_leaves = pair.left_tree.detailedDFS();
-		ArrayList<SuperPath>right_leaves = pair.right_tree.detailedDFS();
+		SuperPath[] left_leaves = pair.left_tree.leafPaths();
+		SuperPath[] right_leaves = pair.right_tree.leafPaths();
+		int[] l2r = new int[n];
+		int[] r2l = new int[n];
+		Arrays.fill(l2r, -1);
 		for (int i=0;i<n;i++)
 		{
 			//IMPORTANT: NOTE THE ORDER !
@@ -179,8 +303,8 @@ public class TreePermutation {
 			int index1 = permutation[i]-1;
 			try //put the leaf pair into permutation map
 			{
-				SuperPath leftnode = left_leaves.get(index1);
-				SuperPath rightnode = right_leaves.get(index2);
+				SuperPath leftnode = left_leaves[index1];
+				SuperPath rightnode = right_leaves[index2];
 				permutationMap.put(leftnode, rightnode);	
 			}
 			catch (IndexOutOfBoundsException e)
@@ -188,11 +312,18 @@ public class TreePermutation {
 				throw new TreeNodeException("Permutation indices out of bounds (must be in 1,2,..,n)!");
 			}
 			
-			if ((index2>right_leaves.size()-1)||(index1>left_leaves.size()-1))
+			if ((index2>right_leaves.length-1)||(index1>left_leaves.length-1))
 			{
 				throw new TreeNodeException("Weird numbers in permutation! Must be 1, 2, ... ,n");
 			}
+			if (l2r[index1]>=0)
+			{
+				throw new TreeNodeException("Weird numbers in permutation! Must be 1, 2, ... ,n; "+(index1+1)+" occurs twice");
+			}
+			l2r[index1] = index2;
+			r2l[index2] = index1;
 		}		
+		this.index = new LeafIndex(left_leaves, right_leaves, l2r, r2l);
 	}
 
 	/**
@@ -205,37 +336,131 @@ public class TreePermutation {
 	{		
 		this.left_tree = left_tree;
 		this.right_tree = right_tree;
-		permutationMap = new HashMap<SuperPath, SuperPath>(map);
+		permutationMap = new HashMap<SuperPath, SuperPath>();
+		for (Map.Entry<SuperPath, SuperPath> e:map.entrySet())
+		{
+			permutationMap.put(e.getKey().intern(), e.getValue().intern());
+		}
+	}
+	
+	
+	/**
+	 * Constructs a copy of a permutation for another pair of trees.
+	 * <br>The map is copied directly; the SuperPaths in it are immutable
+	 * (interned), so the copy shares them with the original.
+	 * @param P the permutation to copy
+	 * @param left_tree the left tree of the copy (a tree with the same pattern as P.left_tree)
+	 * @param right_tree the right tree of the copy (a tree with the same pattern as P.right_tree)
+	 */
+	public TreePermutation(TreePermutation P, NvTree left_tree, NvTree right_tree)
+	{
+		this.left_tree = left_tree;
+		this.right_tree = right_tree;
+		this.permutationMap = new HashMap<SuperPath, SuperPath>(P.permutationMap);
+		this.index = P.index;
 	}
 	
 	
+	/**
+	 * Makes this permutation read-only: put(), remove(), reset() and invert() 
+	 * throw an exception from now on. The permutation map and the trees must not be
+	 * changed directly either.
+	 * @return this permutation
+	 */
+	public TreePermutation freeze()
+	{
+		frozen = true;
+		return this;
+	}
+	
+	/**
+	 * Tells whether this permutation is frozen
+	 * @return true if this permutation is read-only
+	 */
+	public boolean isFrozen()
+	{
+		return frozen;
+	}
+	
+	/**
+	 * Throws an exception if this permutation may not be changed
+	 * @throws IllegalStateException if the permutation is frozen
+	 */
+	private void checkNotFrozen()
+	{
+		if (frozen)
+		{
+			throw new IllegalStateException("This permutation is read-only; make a copy to change it.");
+		}
+	}
+	
+	/**
+	 * Returns the inverse permutation, which maps the right tree to the left tree.
+	 * <br>
+	 * The inverse of a frozen permutation is frozen as well, and it is built only once:
+	 * its map is the reversed map of this one, and each is the inverse view of the other. 
+	 * The inverse of a permutation that is not frozen is a new copy.
+	 * @return the inverse of this permutation; the trees are shared, not copied
+	 */
+	public TreePermutation inverseView()
+	{
+		TreePermutation I = inverse;
+		if (I != null)
+		{
+			return I;
+		}
+		I = new TreePermutation(right_tree, left_tree, new HashMap<SuperPath, SuperPath>());
+		for (Map.Entry<SuperPath, SuperPath> e:permutationMap.entrySet())
+		{
+			I.permutationMap.put(e.getValue(), e.getKey());
+		}
+		LeafIndex J = index;
+		if (J != null)
+		{
+			I.index = J.inverse();
+		}
+		if (frozen)
+		{
+			I.frozen = true;
+			I.inverse = this;
+			inverse = I;
+		}
+		return I;
+	}
+	
 	/**
 	 * Resets the permutation to identity permutation
 	 *
 	 */
 	public void reset() throws TreeNodeException
 	{
+		checkNotFrozen();
+		this.index = null;
 		this.permutationMap.clear();
-		ArrayList<SuperPath>L = left_tree.detailedDFS();
-		ArrayList<SuperPath>R = right_tree.detailedDFS();
-		if (L.size() != R.size())
+		LeafCursor L = left_tree.leafCursor();
+		LeafCursor R = right_tree.leafCursor();
+		boolean moreL = L.next(), moreR = R.next();
+		while (moreL && moreR)
 		{
-			throw new TreeNodeException("The trees have different number of nodes! \n Cannot construct default permutation.");
+			permutationMap.put(L.getPath().intern(), R.getPath().intern());
+			moreL = L.next();
+			moreR = R.next();
 		}
-		else
+		if (moreL || moreR)
 		{
-			for (int i=0;i<L.size();i++)
-			{
-				permutationMap.put(L.get(i), R.get(i));
-			}
+			throw new TreeNodeException("The trees have different number of nodes! \n Cannot construct default permutation.");
 		}
 	}
 	
 	/**
 	 * Inverts the permutation
+	 * @throws IllegalStateException if the permutation is frozen
 	 */
 	public void invert()
 	{
+		checkNotFrozen();
+		LeafIndex I = index;
+		this.index = (I==null) ? null : I.inverse();
 		//Swap the trees
 		NvTree temp = this.left_tree;
 		this.left_tree = this.right_tree;
@@ -276,10 +501,14 @@ public class TreePermutation {
 	 * Puts a key-value pair in the permutation
 	 * @param key a path to a leaf in the left tree
 	 * @param value a path to the leaf in the right tree that this key maps to
+	 * <br>Both paths are stored interned.
+	 * @throws IllegalStateException if the permutation is frozen
 	 */
 	public void put (SuperPath key, SuperPath value)
 	{
-		permutationMap.put(key, value);
+		checkNotFrozen();
+		this.index = null;
+		permutationMap.put(key.intern(), value.intern());
 	}
 	
 	
@@ -297,9 +526,12 @@ public class TreePermutation {
 	/**
 	 * Removes a key-value pair in the permutation
 	 * @param key a path to a leaf in the left tree
+	 * @throws IllegalStateException if the permutation is frozen
 	 */
 	public void remove(SuperPath key)
 	{
+		checkNotFrozen();
+		this.index = null;
 		permutationMap.remove(key);
 	}
 	
@@ -389,10 +621,10 @@ public class TreePermutation {
 	 */
 	public boolean preservesOrder() throws TreeNodeException
 	{
-		int[] a = this.toArray();
+		int[] a = leafIndex().leftToRight;
 		for (int i=0; i<a.length; i++)
 		{
-			if (a[i] != i+1) return false;
+			if (a[i] != i) return false;
 		}
 		return true;
 	}
@@ -35,11 +35,14 @@ public class VarBucket
 	
 	/**
 	 * Stores a variable in the bucket
+	 * <br>Tree pairs are frozen (see {@link TreePair#freeze()}) when they are stored, 
+	 * so that their inverses can be shared between expressions.
 	 * @param name variable name
 	 * @param value variable value
 	 */
 	public void add(String name, Object value) throws TreeNodeException
 	{
+		if (value instanceof TreePair) {((TreePair) value).freeze();}
 		if (isGoodVarName(name)){ bucket.put(name, value);}
 		else {throw new TreeNodeException("Invalid variable name : "+name);}
 	}
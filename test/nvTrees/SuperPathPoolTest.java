@@ -0,0 +1,102 @@
+package nvTrees;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Tests for the SuperPath intern pool
+ * @author Romwell
+ *
+ */
+public class SuperPathPoolTest {
+
+	/**
+	 * Number of threads interning the same paths at once
+	 */
+	private static final int THREADS = 8;
+
+	/**
+	 * Number of distinct paths interned in each round
+	 */
+	private static final int PATHS = 2000;
+
+	/**
+	 * Builds the k'th test path of a round
+	 */
+	private static SuperPath path(int round, int k)
+	{
+		return new SuperPath(new String[] {"", Integer.toBinaryString(k+round*PATHS), "1"+Integer.toBinaryString(k)});
+	}
+
+	@Test
+	public void internReturnsEqualInstance()
+	{
+		SuperPath P = path(0, 5);
+		SuperPath Q = P.intern();
+		assertTrue(Q.isInterned());
+		assertEquals(P, Q);
+		assertEquals(P.hashCode(), Q.hashCode());
+		assertSame(Q, path(0, 5).intern());
+		assertSame(Q, Q.intern());
+	}
+
+	@Test
+	public void concurrentInternIsUnique() throws Exception
+	{
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try
+		{
+			for (int round=0;round<50;round++)
+			{
+				final int r = round;
+				final CyclicBarrier start = new CyclicBarrier(THREADS);
+				List<Future<SuperPath[]>> results = new ArrayList<Future<SuperPath[]>>();
+				for (int t=0;t<THREADS;t++)
+				{
+					results.add(executor.submit(new Callable<SuperPath[]>() {
+						public SuperPath[] call() throws Exception
+						{
+							start.await();
+							SuperPath[] ans = new SuperPath[PATHS];
+							for (int k=0;k<PATHS;k++)
+							{
+								ans[k] = path(r, k).intern();
+							}
+							return ans;
+						}
+					}));
+				}
+				SuperPath[] first = results.get(0).get();
+				HashMap<SuperPath, Integer> index = new HashMap<SuperPath, Integer>();
+				for (int k=0;k<PATHS;k++)
+				{
+					index.put(first[k], k);
+				}
+				for (Future<SuperPath[]> f : results)
+				{
+					SuperPath[] other = f.get();
+					for (int k=0;k<PATHS;k++)
+					{
+						assertSame(first[k], other[k]);
+						assertEquals(Integer.valueOf(k), index.get(other[k]));
+					}
+				}
+			}
+		}
+		finally
+		{
+			executor.shutdownNow();
+		}
+	}
+}